@@ -0,0 +1,86 @@
+package org.xmlresolver.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xmlresolver.CatalogManager;
+import org.xmlresolver.ResolverFeature;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/** The cost of each kind of catalog lookup.
+ *
+ * <p>The catalogs are loaded before measurement starts, so these are the costs of
+ * searching them: the full JATS catalog (explicit system and public entries) against
+ * the rewrite catalog, with and without the catalogs on the classpath.</p>
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CatalogLookupBenchmark {
+    @Param({Fixtures.JATS_CATALOG, Fixtures.JATS_REWRITE})
+    public String catalog;
+
+    @Param({"true", "false"})
+    public boolean classpathCatalogs;
+
+    private CatalogManager manager;
+
+    @Setup
+    public void setup() {
+        manager = Fixtures.configuration(Collections.singletonList(catalog), classpathCatalogs)
+                .getFeature(ResolverFeature.CATALOG_MANAGER);
+        // Make sure the catalogs are loaded
+        manager.lookupSystem(Fixtures.MISSING);
+    }
+
+    @Benchmark
+    public URI lookupSystem() {
+        return manager.lookupSystem(Fixtures.JATS_SYSTEM);
+    }
+
+    @Benchmark
+    public URI lookupSystemMiss() {
+        return manager.lookupSystem(Fixtures.MISSING);
+    }
+
+    @Benchmark
+    public URI lookupPublic() {
+        return manager.lookupPublic(null, Fixtures.JATS_PUBLIC);
+    }
+
+    @Benchmark
+    public URI lookupEntity() {
+        return manager.lookupEntity(null, Fixtures.JATS_SYSTEM, null);
+    }
+
+    @Benchmark
+    public URI lookupURI() {
+        return manager.lookupURI(Fixtures.JATS_SYSTEM);
+    }
+
+    @Benchmark
+    public URI lookupDoctype() {
+        return manager.lookupDoctype("html", Fixtures.XHTML_SYSTEM, Fixtures.XHTML_PUBLIC);
+    }
+
+    @Benchmark
+    public URI lookupNamespaceURI() {
+        return manager.lookupNamespaceURI("http://docbook.org/ns/docbook",
+                "http://relaxng.org/ns/structure/1.0", "validation");
+    }
+}
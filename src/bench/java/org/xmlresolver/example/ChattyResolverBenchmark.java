@@ -0,0 +1,102 @@
+package org.xmlresolver.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.ls.LSInput;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xmlresolver.Resolver;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/** The cost of each {@link ChattyResolver} entry point.
+ *
+ * <p>This includes opening the resolved resource (but not reading it), recording
+ * the metrics, and reporting the resolution in each of the output modes.</p>
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChattyResolverBenchmark {
+    @Param({"quiet", "human", "jsonl"})
+    public String output;
+
+    @Param({"true", "false"})
+    public boolean classpathCatalogs;
+
+    private ResolutionLog log;
+    private ChattyResolver resolver;
+    private String jatsBase;
+    private String sampleBase;
+
+    @Setup
+    public void setup() {
+        Resolver parent = new Resolver(Fixtures.configuration(
+                Arrays.asList(Fixtures.JATS_CATALOG, Fixtures.SAMPLE_CATALOG), classpathCatalogs));
+        log = ResolutionLog.create(output, null, Fixtures.discard());
+        resolver = new ChattyResolver(parent, log, new ResolutionMetrics().recorder(null));
+        jatsBase = Paths.get("xml/jats/doc.xml").toUri().toString();
+        sampleBase = Paths.get("schema/sample/sample.xsd").toUri().toString();
+    }
+
+    @TearDown
+    public void teardown() {
+        log.close();
+    }
+
+    @Benchmark
+    public Object resolveEntity() throws SAXException, IOException {
+        InputSource source = resolver.resolveEntity(null, Fixtures.JATS_SYSTEM);
+        Fixtures.close(source);
+        return source;
+    }
+
+    @Benchmark
+    public Object resolveEntity2() throws SAXException, IOException {
+        InputSource source = resolver.resolveEntity("[dtd]", null, jatsBase, Fixtures.JATS_SYSTEM);
+        Fixtures.close(source);
+        return source;
+    }
+
+    @Benchmark
+    public Object getExternalSubset() throws SAXException, IOException {
+        InputSource source = resolver.getExternalSubset("html", null);
+        Fixtures.close(source);
+        return source;
+    }
+
+    @Benchmark
+    public Object resolve() throws TransformerException {
+        Source source = resolver.resolve(Fixtures.DOCBOOK_RNG, null);
+        Fixtures.close(source);
+        return source;
+    }
+
+    @Benchmark
+    public Object resolveResource() {
+        LSInput source = resolver.resolveResource(XMLConstants.W3C_XML_SCHEMA_NS_URI,
+                XMLConstants.XML_NS_URI, null, "xml.xsd", sampleBase);
+        Fixtures.close(source);
+        return source;
+    }
+}
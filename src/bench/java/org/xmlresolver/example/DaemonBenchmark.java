@@ -0,0 +1,119 @@
+package org.xmlresolver.example;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/** Compare the latency of a cold command line run with a daemon round trip.
+ *
+ * <p>The cold runs start a new JVM for each command, exactly as a build script would.
+ * The daemon runs send the same command to a {@link ResolverDaemon} running in this JVM.
+ * The daemon numbers don't include the cost of starting a client; that's roughly what
+ * you'd see with <code>curl</code>, while <code>SampleApp -connect</code> adds the
+ * startup of a (small) JVM.</p>
+ *
+ * <p>Usage: <code>DaemonBenchmark [-iterations:N] [command line…]</code></p>
+ */
+
+public class DaemonBenchmark {
+    private static final List<String> DEFAULT_COMMAND = Arrays.asList(
+            "-catalog:schema/jats/catalog.xml", "lookup",
+            "-system:https://jats.nlm.nih.gov/articleauthoring/1.2/JATS-articleauthoring1.dtd");
+
+    public static void main(String[] args) throws Exception {
+        int iterations = 10;
+        List<String> command = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("-iterations:")) {
+                iterations = Integer.parseInt(arg.substring(12));
+            } else {
+                command.add(arg);
+            }
+        }
+        if (command.isEmpty()) {
+            command = DEFAULT_COMMAND;
+        }
+
+        System.out.println("Benchmarking: SampleApp " + String.join(" ", command));
+
+        List<Long> cold = new ArrayList<>();
+        for (int count = 0; count < iterations; count++) {
+            cold.add(coldRun(command));
+        }
+        report("Cold CLI", cold);
+
+        SampleApp app = new SampleApp();
+        ResolverDaemon daemon = new ResolverDaemon(app, 0);
+        daemon.start();
+        String port = String.valueOf(daemon.getAddress().getPort());
+        PrintStream discard = new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                // nop
+            }
+        });
+
+        try {
+            // The first request loads the catalogs; that's the cost the daemon amortizes
+            long start = System.nanoTime();
+            ResolverDaemon.send(port, command, discard);
+            System.out.printf("Daemon first request: %.1fms%n", (System.nanoTime() - start) / 1e6);
+
+            List<Long> warm = new ArrayList<>();
+            for (int count = 0; count < iterations; count++) {
+                start = System.nanoTime();
+                ResolverDaemon.send(port, command, discard);
+                warm.add(System.nanoTime() - start);
+            }
+            report("Daemon round trip", warm);
+
+            System.out.printf("Speedup (median): %.1fx%n", (double) median(cold) / median(warm));
+        } finally {
+            daemon.stop();
+        }
+    }
+
+    private static long coldRun(List<String> command) throws Exception {
+        List<String> cmdline = new ArrayList<>();
+        cmdline.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        cmdline.add("-cp");
+        cmdline.add(System.getProperty("java.class.path"));
+        cmdline.add(SampleApp.class.getName());
+        cmdline.addAll(command);
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(cmdline).redirectErrorStream(true).start();
+        try (InputStream output = process.getInputStream()) {
+            byte[] buf = new byte[8192];
+            while (output.read(buf) >= 0) {
+                // discard
+            }
+        }
+        int status = process.waitFor();
+        long elapsed = System.nanoTime() - start;
+        if (status != 0) {
+            throw new IllegalStateException("Command failed with exit status " + status);
+        }
+        return elapsed;
+    }
+
+    private static long median(List<Long> times) {
+        List<Long> sorted = new ArrayList<>(times);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+
+    private static void report(String label, List<Long> times) {
+        long total = 0;
+        for (long time : times) {
+            total += time;
+        }
+        System.out.printf("%s: median %.1fms, mean %.1fms, min %.1fms over %d runs%n", label,
+                median(times) / 1e6, total / 1e6 / times.size(), Collections.min(times) / 1e6, times.size());
+    }
+}
@@ -0,0 +1,95 @@
+package org.xmlresolver.example;
+
+import org.w3c.dom.ls.LSInput;
+import org.xml.sax.InputSource;
+import org.xmlresolver.ResolverFeature;
+import org.xmlresolver.XMLResolverConfiguration;
+
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+
+/** The scenarios from the README, for the benchmarks.
+ *
+ * <p>The identifiers are the ones that the documents in <code>xml/</code> use, and the
+ * resolver is configured the way {@link SampleApp} configures it. Paths are relative to
+ * the project directory, so run the benchmarks from there.</p>
+ */
+
+class Fixtures {
+    public static final String JATS_CATALOG = "schema/jats/catalog.xml";
+    public static final String JATS_REWRITE = "schema/jats/rewrite.xml";
+    public static final String SAMPLE_CATALOG = "schema/sample/catalog.xml";
+    public static final String JATS_SYSTEM = "https://jats.nlm.nih.gov/articleauthoring/1.2/JATS-articleauthoring1.dtd";
+    public static final String JATS_PUBLIC = "-//NLM//DTD JATS (Z39.96) JATS DTD Suite Module of Modules v1.2 20190208//EN";
+    public static final String XHTML_SYSTEM = "https://www.w3.org/MarkUp/DTD/xhtml11.dtd";
+    public static final String XHTML_PUBLIC = "-//W3C//DTD XHTML 1.1//EN";
+    public static final String DOCBOOK_RNG = "https://docbook.org/xml/5.1/rng/docbook.rng";
+    public static final String MISSING = "https://example.com/not/in/any/catalog.dtd";
+
+    private Fixtures() {
+        // never instantiated
+    }
+
+    /** A resolver configuration like the one SampleApp would use.
+     *
+     * @param catalogs The catalogs
+     * @param classpathCatalogs Search the classpath for catalogs?
+     * @return The configuration
+     */
+    public static XMLResolverConfiguration configuration(List<String> catalogs, boolean classpathCatalogs) {
+        URL propurl = ClassLoader.getSystemClassLoader().getResource("xmlresolver-sampleapp.properties");
+        XMLResolverConfiguration config = new XMLResolverConfiguration(Collections.singletonList(propurl), catalogs);
+        config.setFeature(ResolverFeature.CACHE_UNDER_HOME, false);
+        config.setFeature(ResolverFeature.CLASSPATH_CATALOGS, classpathCatalogs);
+        config.setFeature(ResolverFeature.CACHE_DIRECTORY, null);
+        return config;
+    }
+
+    /** A stream that throws away everything written to it. */
+    public static PrintStream discard() {
+        return new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+                // nop
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                // nop
+            }
+        });
+    }
+
+    /** Close the stream in a resolved resource, if there is one.
+     *
+     * <p>The resolver opens the resources it returns; a benchmark that doesn't close
+     * them runs out of file descriptors.</p>
+     */
+    public static void close(Object resolved) {
+        Closeable stream = null;
+        if (resolved instanceof InputSource) {
+            stream = ((InputSource) resolved).getByteStream();
+        } else if (resolved instanceof SAXSource) {
+            InputSource source = ((SAXSource) resolved).getInputSource();
+            stream = source == null ? null : source.getByteStream();
+        } else if (resolved instanceof StreamSource) {
+            stream = ((StreamSource) resolved).getInputStream();
+        } else if (resolved instanceof LSInput) {
+            stream = ((LSInput) resolved).getByteStream();
+        }
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException ex) {
+                // nevermind
+            }
+        }
+    }
+}
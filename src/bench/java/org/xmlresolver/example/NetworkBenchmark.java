@@ -0,0 +1,199 @@
+package org.xmlresolver.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/** Measure the README's network scenarios against a {@link NetworkSimulator}.
+ *
+ * <p>Each document is parsed, with DTD validation, in a new JVM (as a user would run
+ * it) in each of these ways:</p>
+ *
+ * <ul>
+ * <li><em>network</em>: everything is fetched from the simulated servers;</li>
+ * <li><em>cache (cold)</em> and <em>cache (warm)</em>: with <code>-cache-directory</code>,
+ * first with an empty cache and then again with the same one;</li>
+ * <li><em>catalog</em> and <em>rewrite</em>: with the JATS catalog or the JATS rewrite
+ * catalog in front of the simulated servers (JATS only).</li>
+ * </ul>
+ *
+ * <p>The classpath catalogs are turned off, so anything the scenario's own catalog doesn't
+ * have comes from the server. The report gives the median time and the number of requests
+ * and bytes the server answered for each scenario. A run that fails is a failure of the
+ * benchmark (exit status 1), unless failures were asked for with <code>-failures</code>;
+ * then the failed runs are counted instead.</p>
+ *
+ * <p>Usage: <code>NetworkBenchmark [-iterations:N] [-latency:ms] [-bandwidth:size]
+ * [-per-host:N] [-failures:rate] [-seed:N]</code></p>
+ */
+
+public class NetworkBenchmark {
+    private static final Map<String, String> DOCUMENTS = new LinkedHashMap<>();
+    static {
+        DOCUMENTS.put("jats", "xml/jats/doc.xml");
+        DOCUMENTS.put("xhtml", "xml/xhtml/index.xhtml");
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = 3;
+        long latency = 100;
+        long bandwidth = ResourceStore.parseSize("1m");
+        int perHost = 6;
+        double failureRate = 0;
+        long seed = 0;
+        for (String arg : args) {
+            if (arg.startsWith("-iterations:")) {
+                iterations = Integer.parseInt(arg.substring(12));
+            } else if (arg.startsWith("-latency:")) {
+                latency = Long.parseLong(arg.substring(9));
+            } else if (arg.startsWith("-bandwidth:")) {
+                bandwidth = ResourceStore.parseSize(arg.substring(11));
+            } else if (arg.startsWith("-per-host:")) {
+                perHost = Integer.parseInt(arg.substring(10));
+            } else if (arg.startsWith("-failures:")) {
+                failureRate = Double.parseDouble(arg.substring(10));
+            } else if (arg.startsWith("-seed:")) {
+                seed = Long.parseLong(arg.substring(6));
+            } else {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+        }
+
+        NetworkSimulator simulator = new NetworkSimulator(NetworkSimulator.DEFAULT_CATALOGS, true,
+                latency, bandwidth, perHost, failureRate, seed, null);
+        simulator.start(0);
+        Path mirror = Files.createTempFile("mirror", ".xml");
+        int failed = 0;
+        try {
+            simulator.writeCatalog(mirror);
+            System.out.printf("Simulating %s at %s: %dms latency, %d bytes/s, %d requests per host at once, %.0f%% failures%n",
+                    String.join(", ", simulator.hosts()), simulator.base(), latency, bandwidth, perHost, failureRate * 100);
+
+            for (Map.Entry<String, String> document : DOCUMENTS.entrySet()) {
+                Map<String, List<long[]>> results = new LinkedHashMap<>();
+                for (int count = 0; count < iterations; count++) {
+                    List<String> network = Collections.singletonList("-catalog:" + mirror);
+                    measure(results, "network", simulator, network, document.getValue());
+
+                    Path cache = Files.createTempDirectory("cache");
+                    try {
+                        List<String> cached = Arrays.asList("-catalog:" + mirror, "-cache-directory:" + cache);
+                        measure(results, "cache (cold)", simulator, cached, document.getValue());
+                        measure(results, "cache (warm)", simulator, cached, document.getValue());
+                    } finally {
+                        delete(cache);
+                    }
+
+                    if ("jats".equals(document.getKey())) {
+                        measure(results, "catalog", simulator,
+                                Arrays.asList("-catalog:" + Fixtures.JATS_CATALOG, "-catalog:" + mirror), document.getValue());
+                        measure(results, "rewrite", simulator,
+                                Arrays.asList("-catalog:" + Fixtures.JATS_REWRITE, "-catalog:" + mirror), document.getValue());
+                    }
+                }
+
+                System.out.println(document.getValue() + ":");
+                for (Map.Entry<String, List<long[]>> result : results.entrySet()) {
+                    failed += report(result.getKey(), result.getValue());
+                }
+            }
+        } finally {
+            simulator.stop();
+            Files.deleteIfExists(mirror);
+        }
+
+        if (failed > 0) {
+            System.out.println(failed + " runs failed");
+            if (failureRate == 0) {
+                System.exit(1);
+            }
+        }
+    }
+
+    /** Run one scenario and record its time, status, and what the server did. */
+    private static void measure(Map<String, List<long[]>> results, String label, NetworkSimulator simulator,
+                                List<String> options, String document) throws Exception {
+        List<String> cmdline = new ArrayList<>();
+        cmdline.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        cmdline.add("-cp");
+        cmdline.add(System.getProperty("java.class.path"));
+        cmdline.add(SampleApp.class.getName());
+        cmdline.add("-classpath-catalogs:false");
+        cmdline.addAll(options);
+        cmdline.addAll(Arrays.asList("parse", "-dtd", "-resolver-output:quiet", document));
+
+        simulator.reset();
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(cmdline).redirectErrorStream(true).start();
+        try (InputStream output = process.getInputStream()) {
+            byte[] buf = new byte[8192];
+            while (output.read(buf) >= 0) {
+                // discard
+            }
+        }
+        int status = process.waitFor();
+        long elapsed = System.nanoTime() - start;
+        long[] served = simulator.reset();
+
+        if (!results.containsKey(label)) {
+            results.put(label, new ArrayList<>());
+        }
+        results.get(label).add(new long[] {elapsed, status, served[0], served[1], served[2], served[3]});
+    }
+
+    /** Print a scenario's results.
+     *
+     * @return The number of runs that failed
+     */
+    private static int report(String label, List<long[]> runs) {
+        List<Long> times = new ArrayList<>();
+        int failed = 0;
+        long requests = 0;
+        long bytes = 0;
+        long injected = 0;
+        long missing = 0;
+        for (long[] run : runs) {
+            times.add(run[0]);
+            if (run[1] != 0) {
+                failed++;
+            }
+            requests += run[2];
+            bytes += run[3];
+            injected += run[4];
+            missing += run[5];
+        }
+        Collections.sort(times);
+        System.out.printf("  %-13s median %8.1fms, min %8.1fms; %5.1f requests, %,9d bytes per run",
+                label, times.get(times.size() / 2) / 1e6, times.get(0) / 1e6,
+                (double) requests / runs.size(), bytes / runs.size());
+        if (missing > 0) {
+            System.out.print("; " + missing + " not found");
+        }
+        if (injected > 0) {
+            System.out.print("; " + injected + " failures injected");
+        }
+        if (failed > 0) {
+            System.out.print("; " + failed + " of " + runs.size() + " runs failed");
+        }
+        System.out.println();
+        return failed;
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package org.xmlresolver.example;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.xmlresolver.CatalogManager;
+import org.xmlresolver.Resolver;
+import org.xmlresolver.ResolverFeature;
+import org.xmlresolver.catalog.entry.Entry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Pretend to be the web servers the schemas come from.
+ *
+ * <p>The server listens on the loopback interface and serves every resource the catalogs
+ * know a local copy of at the path of its real URI: the JATS DTD modules from
+ * <code>schema/jats</code> are at <code>/jats.nlm.nih.gov/articleauthoring/1.2/…</code>, the
+ * schemas in the resolver's data jar (XHTML, MathML, …) at <code>/www.w3.org/…</code>, and
+ * so on. {@link #writeCatalog(Path)} writes a catalog that rewrites those hosts to the
+ * server; give it to SampleApp with <code>-catalog</code> and everything that would have
+ * been fetched from the web is fetched from here instead.</p>
+ *
+ * <p>To make it behave like the real network, every request can be delayed
+ * (<code>-latency</code>), responses can be sent no faster than a given rate
+ * (<code>-bandwidth</code>), each host answers only a few requests at a time
+ * (<code>-per-host</code>; the rest wait), and a fraction of the requests can fail with a
+ * 503 (<code>-failures</code>, with <code>-seed</code> to make the failures repeatable).
+ * The server counts the requests, bytes, and failures so that runs can be compared.</p>
+ *
+ * <p>Usage: <code>NetworkSimulator [-port:N] [-latency:ms] [-bandwidth:size]
+ * [-per-host:N] [-failures:rate] [-seed:N] [-o:catalog] [-catalog:file…]</code></p>
+ */
+
+public class NetworkSimulator {
+    public static final List<String> DEFAULT_CATALOGS = Arrays.asList(
+            Fixtures.JATS_CATALOG, Fixtures.JATS_REWRITE, Fixtures.SAMPLE_CATALOG, "schema/docbook/catalog.xml");
+    private static final String CLASSPATH_CATALOG = "org/xmlresolver/catalog.xml";
+
+    private final Map<String, URI> resources = new HashMap<>();
+    private final TreeMap<String, URI> rewrites = new TreeMap<>();
+    private final Set<String> hosts = new TreeSet<>();
+    private final Map<String, Semaphore> connections = new ConcurrentHashMap<>();
+    private final long latency;
+    private final long bandwidth;
+    private final int perHost;
+    private final double failureRate;
+    private final Random random;
+    private final PrintStream log;
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder missing = new LongAdder();
+    private HttpServer server = null;
+    private ExecutorService executor = null;
+
+    /** Make a simulator.
+     *
+     * @param catalogs The catalogs that say what to serve
+     * @param classpathCatalogs Also serve what the catalogs on the classpath know about?
+     * @param latency Milliseconds to wait before answering each request
+     * @param bandwidth Bytes per second to send each response at (0 for as fast as possible)
+     * @param perHost Requests each host answers at once (0 for no limit)
+     * @param failureRate The fraction of requests that fail
+     * @param seed The seed for choosing which requests fail
+     * @param log Where to report each request, or null
+     * @throws IOException if the classpath can't be searched for catalogs
+     */
+    public NetworkSimulator(List<String> catalogs, boolean classpathCatalogs, long latency, long bandwidth,
+                            int perHost, double failureRate, long seed, PrintStream log) throws IOException {
+        this.latency = latency;
+        this.bandwidth = bandwidth;
+        this.perHost = perHost;
+        this.failureRate = failureRate;
+        this.random = new Random(seed);
+        this.log = log;
+
+        List<String> sources = new ArrayList<>(catalogs);
+        if (classpathCatalogs) {
+            Enumeration<URL> found = ClassLoader.getSystemClassLoader().getResources(CLASSPATH_CATALOG);
+            while (found.hasMoreElements()) {
+                sources.add(found.nextElement().toString());
+            }
+        }
+
+        Resolver resolver = new Resolver(Fixtures.configuration(sources, false));
+        CatalogManager manager = resolver.getConfiguration().getFeature(ResolverFeature.CATALOG_MANAGER);
+        Set<URI> visited = new HashSet<>();
+        for (URI catalog : manager.catalogs()) {
+            mirror(manager, catalog, visited);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = 0;
+        long latency = 0;
+        long bandwidth = 0;
+        int perHost = 0;
+        double failureRate = 0;
+        long seed = 0;
+        String output = "build/network-mirror.xml";
+        List<String> catalogs = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("-port:")) {
+                port = Integer.parseInt(arg.substring(6));
+            } else if (arg.startsWith("-latency:")) {
+                latency = Long.parseLong(arg.substring(9));
+            } else if (arg.startsWith("-bandwidth:")) {
+                bandwidth = ResourceStore.parseSize(arg.substring(11));
+            } else if (arg.startsWith("-per-host:")) {
+                perHost = Integer.parseInt(arg.substring(10));
+            } else if (arg.startsWith("-failures:")) {
+                failureRate = Double.parseDouble(arg.substring(10));
+            } else if (arg.startsWith("-seed:")) {
+                seed = Long.parseLong(arg.substring(6));
+            } else if (arg.startsWith("-o:")) {
+                output = arg.substring(3);
+            } else if (arg.startsWith("-catalog:")) {
+                catalogs.add(arg.substring(9));
+            } else {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+        }
+        if (catalogs.isEmpty()) {
+            catalogs = DEFAULT_CATALOGS;
+        }
+
+        NetworkSimulator simulator = new NetworkSimulator(catalogs, true, latency, bandwidth, perHost, failureRate, seed, System.out);
+        simulator.start(port);
+        Path catalog = simulator.writeCatalog(Paths.get(output));
+        System.out.printf("Serving %d resources and %d trees from %d hosts at %s%n",
+                simulator.resources.size(), simulator.rewrites.size(), simulator.hosts.size(), simulator.base());
+        System.out.println("Use it with: SampleApp -catalog:" + catalog + " -classpath-catalogs:false …");
+        System.out.println("Press ^C to stop");
+        Thread.currentThread().join();
+    }
+
+    /** Start serving.
+     *
+     * @param port The port, or 0 for any free port
+     * @throws IOException if the server can't be started
+     */
+    public void start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/", this::serve);
+        // Requests are answered in parallel, as real servers would; -per-host limits them
+        executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    /** The server's base URI; the path below it starts with the host name. */
+    public String base() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+    }
+
+    /** The hosts being simulated. */
+    public Set<String> hosts() {
+        return Collections.unmodifiableSet(hosts);
+    }
+
+    /** Write a catalog that sends requests for the simulated hosts to the server.
+     *
+     * <p>Both the <code>http</code> and <code>https</code> URIs for each host are
+     * rewritten, for system identifiers and URIs.</p>
+     *
+     * @param catalog Where to write it
+     * @return The catalog's path
+     * @throws IOException if it can't be written
+     */
+    public Path writeCatalog(Path catalog) throws IOException {
+        Path parent = catalog.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (Writer writer = Files.newBufferedWriter(catalog, StandardCharsets.UTF_8)) {
+            writer.write("<catalog xmlns=\"urn:oasis:names:tc:entity:xmlns:xml:catalog\">\n");
+            for (String host : hosts) {
+                for (String scheme : Arrays.asList("https", "http")) {
+                    String start = escape(scheme + "://" + host + "/");
+                    String prefix = escape(base() + host + "/");
+                    writer.write("  <rewriteSystem systemIdStartString=\"" + start + "\" rewritePrefix=\"" + prefix + "\"/>\n");
+                    writer.write("  <rewriteURI uriStartString=\"" + start + "\" rewritePrefix=\"" + prefix + "\"/>\n");
+                }
+            }
+            writer.write("</catalog>\n");
+        }
+        return catalog;
+    }
+
+    /** The counts since the last reset, and reset them.
+     *
+     * @return The requests, bytes sent, injected failures, and requests for unknown resources
+     */
+    public long[] reset() {
+        return new long[] {requests.sumThenReset(), bytes.sumThenReset(), failures.sumThenReset(), missing.sumThenReset()};
+    }
+
+    private void mirror(CatalogManager manager, URI catalog, Set<URI> visited) {
+        if (!visited.add(catalog)) {
+            return;
+        }
+        for (Entry entry : manager.loadCatalog(catalog).entries()) {
+            Entry.Type type = entry.getType();
+            if (type == Entry.Type.NEXT_CATALOG) {
+                mirror(manager, CatalogIndex.target(entry), visited);
+                continue;
+            }
+            if (type != Entry.Type.SYSTEM && type != Entry.Type.URI
+                    && type != Entry.Type.REWRITE_SYSTEM && type != Entry.Type.REWRITE_URI) {
+                continue;
+            }
+            String path = path(CatalogIndex.key(entry));
+            URI target = CatalogIndex.target(entry);
+            if (path == null || target == null || !target.isAbsolute()) {
+                continue;
+            }
+            hosts.add(path.substring(0, path.indexOf('/')));
+            // The first catalog to mention a resource wins, as it would in a lookup
+            if (type == Entry.Type.SYSTEM || type == Entry.Type.URI) {
+                resources.putIfAbsent(path, target);
+            } else {
+                rewrites.putIfAbsent(path, target);
+            }
+        }
+    }
+
+    /** The path an http or https URI is served at, host first; null for other URIs. */
+    private static String path(String uri) {
+        if (uri == null) {
+            return null;
+        }
+        String path;
+        if (uri.startsWith("https://")) {
+            path = uri.substring(8);
+        } else if (uri.startsWith("http://")) {
+            path = uri.substring(7);
+        } else {
+            return null;
+        }
+        return path.indexOf('/') > 0 ? path : null;
+    }
+
+    /** Find the local copy, trying an exact match and then the longest rewrite. */
+    private URI local(String path) {
+        URI local = resources.get(path);
+        if (local != null) {
+            return local;
+        }
+        Map.Entry<String, URI> rewrite = rewrites.floorEntry(path);
+        while (rewrite != null) {
+            if (path.startsWith(rewrite.getKey())) {
+                return URI.create(rewrite.getValue() + path.substring(rewrite.getKey().length()));
+            }
+            rewrite = rewrites.lowerEntry(rewrite.getKey());
+        }
+        return null;
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        String path = exchange.getRequestURI().getRawPath().substring(1);
+        String host = path.indexOf('/') > 0 ? path.substring(0, path.indexOf('/')) : path;
+        Semaphore limit = null;
+        if (perHost > 0) {
+            limit = connections.computeIfAbsent(host, key -> new Semaphore(perHost, true));
+        }
+
+        int status;
+        long sent = 0;
+        try {
+            if (limit != null) {
+                limit.acquireUninterruptibly();
+            }
+            requests.increment();
+            pause(latency);
+
+            URI local = local(path);
+            if (!"GET".equals(exchange.getRequestMethod()) && !"HEAD".equals(exchange.getRequestMethod())) {
+                status = 405;
+                exchange.sendResponseHeaders(status, -1);
+            } else if (failureRate > 0 && random.nextDouble() < failureRate) {
+                failures.increment();
+                status = 503;
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                exchange.sendResponseHeaders(status, -1);
+            } else if (local == null) {
+                missing.increment();
+                status = 404;
+                exchange.sendResponseHeaders(status, -1);
+            } else {
+                byte[] content;
+                try (InputStream stream = local.toURL().openStream()) {
+                    content = read(stream);
+                } catch (IOException ex) {
+                    content = null;
+                }
+                if (content == null) {
+                    missing.increment();
+                    status = 404;
+                    exchange.sendResponseHeaders(status, -1);
+                } else {
+                    status = 200;
+                    exchange.getResponseHeaders().add("Content-Type", contentType(path));
+                    if ("HEAD".equals(exchange.getRequestMethod())) {
+                        exchange.sendResponseHeaders(status, -1);
+                    } else {
+                        exchange.sendResponseHeaders(status, content.length);
+                        try (OutputStream out = exchange.getResponseBody()) {
+                            send(out, content);
+                        }
+                        sent = content.length;
+                        bytes.add(sent);
+                    }
+                }
+            }
+        } finally {
+            exchange.close();
+            if (limit != null) {
+                limit.release();
+            }
+        }
+
+        if (log != null) {
+            log.printf("%s /%s %d %d bytes %.1fms%n", exchange.getRequestMethod(), path, status, sent,
+                    (System.nanoTime() - start) / 1e6);
+        }
+    }
+
+    /** Send the content in slices, a twentieth of a second's worth at a time. */
+    private void send(OutputStream out, byte[] content) throws IOException {
+        if (bandwidth <= 0) {
+            out.write(content);
+            return;
+        }
+        int slice = (int) Math.max(1, Math.min(Integer.MAX_VALUE, bandwidth / 20));
+        long start = System.nanoTime();
+        for (int pos = 0; pos < content.length; pos += slice) {
+            int length = Math.min(slice, content.length - pos);
+            out.write(content, pos, length);
+            out.flush();
+            long due = (pos + length) * 1000000000L / bandwidth;
+            pause((due - (System.nanoTime() - start)) / 1000000);
+        }
+    }
+
+    private static void pause(long millis) {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static byte[] read(InputStream stream) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int len;
+        while ((len = stream.read(buf)) >= 0) {
+            buffer.write(buf, 0, len);
+        }
+        return buffer.toByteArray();
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;");
+    }
+
+    private static String contentType(String path) {
+        String name = path.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".dtd") || name.endsWith(".mod") || name.endsWith(".ent")) {
+            return "application/xml-dtd";
+        }
+        if (name.endsWith(".rnc")) {
+            return "application/relax-ng-compact-syntax";
+        }
+        if (name.endsWith(".xml") || name.endsWith(".xsd") || name.endsWith(".rng") || name.endsWith(".xsl")) {
+            return "application/xml";
+        }
+        return "application/octet-stream";
+    }
+}
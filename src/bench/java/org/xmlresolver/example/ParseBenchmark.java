@@ -0,0 +1,95 @@
+package org.xmlresolver.example;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** End-to-end parse runs over the README scenarios.
+ *
+ * <p>The <code>coldApp</code> benchmark uses a new {@link SampleApp} for every run, so it
+ * includes loading the catalogs and compiling any grammars. The <code>warmApp</code>
+ * benchmark reuses one, as the daemon does. Neither includes JVM startup.</p>
+ *
+ * <p>The <code>jats-cache</code> and <code>xhtml-no-classpath</code> scenarios fetch
+ * resources over the network (the former only until the cache is populated), and the
+ * <code>docbook-rng</code> scenario needs the DocBook jars on the classpath.</p>
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ParseBenchmark {
+    private static final Map<String, String[]> SCENARIOS = new HashMap<>();
+    static {
+        SCENARIOS.put("jats-catalog", new String[] {"-catalog:" + Fixtures.JATS_CATALOG, "parse", "-dtd", "xml/jats/doc.xml"});
+        SCENARIOS.put("jats-rewrite", new String[] {"-catalog:" + Fixtures.JATS_REWRITE, "parse", "-dtd", "xml/jats/doc.xml"});
+        SCENARIOS.put("jats-cache", new String[] {"-cache-directory:build/bench-cache", "parse", "-dtd", "xml/jats/doc.xml"});
+        SCENARIOS.put("xhtml", new String[] {"parse", "-dtd", "xml/xhtml/index.xhtml"});
+        SCENARIOS.put("xhtml-no-classpath", new String[] {"-classpath-catalogs:false", "parse", "-dtd", "xml/xhtml/index.xhtml"});
+        SCENARIOS.put("docbook-rng", new String[] {"parse", "-rng:xml/docbook/schema.rng", "xml/docbook/doc.xml"});
+        SCENARIOS.put("sample-rnc", new String[] {"-catalog:" + Fixtures.SAMPLE_CATALOG, "parse", "-rng:schema/sample/sample.rnc", "xml/sample/doc.xml"});
+    }
+
+    @Param({"jats-catalog", "jats-rewrite", "jats-cache", "xhtml", "xhtml-no-classpath", "docbook-rng", "sample-rnc"})
+    public String scenario;
+
+    private String[] args;
+    private SampleApp app;
+    private PrintStream stdout;
+    private PrintStream stderr;
+
+    @Setup
+    public void setup() {
+        String[] command = SCENARIOS.get(scenario);
+        // Measure the resolution, not the chatter about it
+        args = new String[command.length + 1];
+        System.arraycopy(command, 0, args, 0, command.length);
+        args[command.length] = "-resolver-output:quiet";
+
+        app = new SampleApp();
+        stdout = System.out;
+        stderr = System.err;
+        System.setOut(Fixtures.discard());
+        System.setErr(Fixtures.discard());
+    }
+
+    @TearDown
+    public void teardown() {
+        System.setOut(stdout);
+        System.setErr(stderr);
+    }
+
+    @Benchmark
+    public int coldApp() {
+        return check(new SampleApp().run(args));
+    }
+
+    @Benchmark
+    public int warmApp() {
+        return check(app.run(args));
+    }
+
+    private int check(int status) {
+        if (status != 0) {
+            throw new IllegalStateException("SampleApp " + String.join(" ", args) + " failed with status " + status);
+        }
+        return status;
+    }
+}
@@ -0,0 +1,172 @@
+package org.xmlresolver.example;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.DefaultHandler2;
+import org.xml.sax.ext.EntityResolver2;
+import org.xmlresolver.CatalogManager;
+import org.xmlresolver.Resolver;
+import org.xmlresolver.ResolverFeature;
+import org.xmlresolver.sources.ResolverInputSource;
+
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Hammer one resolver from many threads, with and without the {@link SharedResolver}.
+ *
+ * <p>The identifiers are the ones the JATS and XHTML documents in <code>xml/</code>
+ * ask for, collected by parsing them. Every thread resolves them over and over, each
+ * starting at a different place in the list, and every answer is compared with the
+ * answer from a single threaded run. Each thread count runs twice, each time with a
+ * new resolver: once with the plain {@link Resolver}, so the catalogs are loaded while
+ * the threads are already competing for them, and once with the shared resolver,
+ * which loads them first.</p>
+ *
+ * <p>The report gives the throughput for each thread count and how it compares with
+ * one thread. Mismatches with the plain resolver are reported, since that's what the
+ * shared resolver is for; any answer from the shared resolver that doesn't match is
+ * a failure, and the exit status is 1.</p>
+ *
+ * <p>Usage: <code>ResolverStressBenchmark [-threads:N] [-resolutions:M]</code></p>
+ */
+
+public class ResolverStressBenchmark {
+    private static final List<String> DOCUMENTS = Arrays.asList("xml/jats/doc.xml", "xml/xhtml/index.xhtml");
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+        int resolutions = 20000;
+        for (String arg : args) {
+            if (arg.startsWith("-threads:")) {
+                maxThreads = Integer.parseInt(arg.substring(9));
+            } else if (arg.startsWith("-resolutions:")) {
+                resolutions = Integer.parseInt(arg.substring(13));
+            } else {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+        }
+
+        List<String[]> identifiers = identifiers();
+        String[] expected = new String[identifiers.size()];
+        Resolver single = newResolver();
+        for (int pos = 0; pos < identifiers.size(); pos++) {
+            expected[pos] = resolve(single, identifiers.get(pos));
+        }
+        System.out.printf("%d identifiers from %s; %d resolutions per thread%n",
+                identifiers.size(), String.join(", ", DOCUMENTS), resolutions);
+
+        double[] baseline = new double[2];
+        long failures = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            for (int shared = 0; shared < 2; shared++) {
+                Resolver plain = newResolver();
+                EntityResolver2 resolver = plain;
+                if (shared == 1) {
+                    CatalogManager manager = plain.getConfiguration().getFeature(ResolverFeature.CATALOG_MANAGER);
+                    resolver = new SharedResolver(plain, manager);
+                }
+                LongAdder mismatches = new LongAdder();
+                long elapsed = run(resolver, identifiers, expected, threads, resolutions, mismatches);
+                double throughput = (double) threads * resolutions / (elapsed / 1e9);
+                if (threads == 1) {
+                    baseline[shared] = throughput;
+                }
+                System.out.printf("%3d threads, %-8s %,10.0f resolutions/s (%.2fx), %d mismatches%n",
+                        threads, shared == 1 ? "shared:" : "plain:", throughput, throughput / baseline[shared], mismatches.sum());
+                if (shared == 1) {
+                    failures += mismatches.sum();
+                }
+            }
+        }
+
+        if (failures > 0) {
+            System.out.println(failures + " answers from the shared resolver didn't match the single threaded run");
+            System.exit(1);
+        }
+    }
+
+    private static long run(EntityResolver2 resolver, List<String[]> identifiers, String[] expected,
+                            int threads, int resolutions, LongAdder mismatches) throws InterruptedException {
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int count = 0; count < threads; count++) {
+            int offset = count * identifiers.size() / threads;
+            Thread thread = new Thread(() -> {
+                ready.countDown();
+                try {
+                    go.await();
+                    for (int pos = 0; pos < resolutions; pos++) {
+                        int index = (offset + pos) % identifiers.size();
+                        if (!expected[index].equals(resolve(resolver, identifiers.get(index)))) {
+                            mismatches.increment();
+                        }
+                    }
+                } catch (Exception ex) {
+                    System.err.println(ex);
+                    mismatches.increment();
+                } finally {
+                    done.countDown();
+                }
+            }, "stress-" + count);
+            thread.start();
+        }
+
+        ready.await();
+        long start = System.nanoTime();
+        go.countDown();
+        done.await();
+        return System.nanoTime() - start;
+    }
+
+    private static Resolver newResolver() {
+        return new Resolver(Fixtures.configuration(
+                Arrays.asList(Fixtures.JATS_CATALOG, Fixtures.SAMPLE_CATALOG), true));
+    }
+
+    private static String resolve(EntityResolver2 resolver, String[] identifier) throws SAXException, IOException {
+        InputSource source = resolver.resolveEntity(identifier[0], identifier[1], identifier[2], identifier[3]);
+        Fixtures.close(source);
+        if (source instanceof ResolverInputSource) {
+            return String.valueOf(((ResolverInputSource) source).resolvedURI);
+        }
+        return "(not resolved)";
+    }
+
+    /** The (name, publicId, baseURI, systemId) of every entity the documents load. */
+    private static List<String[]> identifiers() throws Exception {
+        Resolver resolver = newResolver();
+        Set<List<String>> seen = new LinkedHashSet<>();
+        DefaultHandler2 recorder = new DefaultHandler2() {
+            @Override
+            public InputSource resolveEntity(String name, String publicId, String baseURI, String systemId) throws SAXException, IOException {
+                seen.add(Arrays.asList(name, publicId, baseURI, systemId));
+                return resolver.resolveEntity(name, publicId, baseURI, systemId);
+            }
+        };
+
+        SAXParserFactory spf = SAXParserFactory.newInstance();
+        spf.setNamespaceAware(true);
+        for (String document : DOCUMENTS) {
+            XMLReader reader = spf.newSAXParser().getXMLReader();
+            reader.setEntityResolver(recorder);
+            reader.setContentHandler(recorder);
+            reader.parse(new InputSource(Paths.get(document).toUri().toString()));
+        }
+
+        List<String[]> identifiers = new ArrayList<>();
+        for (List<String> identifier : seen) {
+            identifiers.add(identifier.toArray(new String[0]));
+        }
+        return identifiers;
+    }
+}
@@ -0,0 +1,113 @@
+package org.xmlresolver.example;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Measure how long a new JVM takes to produce its first result.
+ *
+ * <p>Each scenario runs the distribution jar in a new JVM, from the staging directory
+ * (where the fixtures are), with and without the class data sharing archive built by
+ * the <code>cdsArchive</code> task. The time to first result is the time until the
+ * command writes its first line of output; the total includes everything up to the
+ * end of the process.</p>
+ *
+ * <p>Usage: <code>StartupBenchmark [-iterations:N] [-stage:dir] [-jar:name] [-archive:name]</code></p>
+ */
+
+public class StartupBenchmark {
+    private static final Map<String, List<String>> SCENARIOS = new LinkedHashMap<>();
+    static {
+        SCENARIOS.put("lookup", Arrays.asList("-catalog:" + Fixtures.JATS_CATALOG, "lookup", "-system:" + Fixtures.JATS_SYSTEM));
+        SCENARIOS.put("show", Arrays.asList("-catalog:" + Fixtures.JATS_CATALOG, "show", "-limit:10"));
+        SCENARIOS.put("parse", Arrays.asList("-catalog:" + Fixtures.JATS_CATALOG, "parse", "-dtd", "-resolver-output:quiet", "xml/jats/doc.xml"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = 10;
+        File stage = new File("build/stage");
+        String jar = null;
+        String archive = "sampleapp.jsa";
+        for (String arg : args) {
+            if (arg.startsWith("-iterations:")) {
+                iterations = Integer.parseInt(arg.substring(12));
+            } else if (arg.startsWith("-stage:")) {
+                stage = new File(arg.substring(7));
+            } else if (arg.startsWith("-jar:")) {
+                jar = arg.substring(5);
+            } else if (arg.startsWith("-archive:")) {
+                archive = arg.substring(9);
+            } else {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+        }
+        if (jar == null) {
+            throw new IllegalArgumentException("Which jar? Use -jar:sampleapp-<version>.jar");
+        }
+
+        boolean haveArchive = new File(stage, archive).exists();
+        if (!haveArchive) {
+            System.out.println("No " + archive + " in " + stage + "; measuring without class data sharing only");
+        }
+
+        for (Map.Entry<String, List<String>> scenario : SCENARIOS.entrySet()) {
+            measure(scenario.getKey(), stage, jar, null, scenario.getValue(), iterations);
+            if (haveArchive) {
+                measure(scenario.getKey() + " (CDS)", stage, jar, archive, scenario.getValue(), iterations);
+            }
+        }
+    }
+
+    private static void measure(String label, File stage, String jar, String archive, List<String> command, int iterations) throws Exception {
+        List<Long> first = new ArrayList<>();
+        List<Long> total = new ArrayList<>();
+        for (int count = 0; count < iterations; count++) {
+            long[] times = run(stage, jar, archive, command);
+            first.add(times[0]);
+            total.add(times[1]);
+        }
+        System.out.printf("%-14s first result: median %.1fms, min %.1fms; total: median %.1fms over %d runs%n", label,
+                median(first) / 1e6, Collections.min(first) / 1e6, median(total) / 1e6, iterations);
+    }
+
+    private static long[] run(File stage, String jar, String archive, List<String> command) throws Exception {
+        List<String> cmdline = new ArrayList<>();
+        cmdline.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        if (archive != null) {
+            cmdline.add("-XX:SharedArchiveFile=" + archive);
+        }
+        cmdline.add("-jar");
+        cmdline.add(jar);
+        cmdline.addAll(command);
+
+        long start = System.nanoTime();
+        long first = -1;
+        Process process = new ProcessBuilder(cmdline).directory(stage).redirectErrorStream(true).start();
+        try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            while (output.readLine() != null) {
+                if (first < 0) {
+                    first = System.nanoTime() - start;
+                }
+            }
+        }
+        int status = process.waitFor();
+        long elapsed = System.nanoTime() - start;
+        if (status != 0) {
+            throw new IllegalStateException("Command failed with exit status " + status + ": " + String.join(" ", command));
+        }
+        return new long[] {first < 0 ? elapsed : first, elapsed};
+    }
+
+    private static long median(List<Long> times) {
+        List<Long> sorted = new ArrayList<>(times);
+        Collections.sort(sorted);
+        return sorted.get(sorted.size() / 2);
+    }
+}
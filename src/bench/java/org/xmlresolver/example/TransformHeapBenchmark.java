@@ -0,0 +1,94 @@
+package org.xmlresolver.example;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Compare the peak heap of a transformation built in memory with one streamed to a file.
+ *
+ * <p>Both modes use the same {@link SampleApp}, and the stylesheet is compiled before
+ * either is measured, so the difference is just the result tree. Peak usage is read
+ * from the heap memory pools, which are reset before each mode; it includes garbage
+ * that hadn't been collected yet, so run with the same heap settings you'd use in
+ * production. (For allocation rates, use JMH's <code>-prof gc</code>.)</p>
+ *
+ * <p>Usage: <code>TransformHeapBenchmark [-iterations:N] [document [stylesheet]]</code></p>
+ */
+
+public class TransformHeapBenchmark {
+    private static final String DEFAULT_DOCUMENT = "xml/docbook/doc.xml";
+    private static final String DEFAULT_STYLESHEET = "xml/docbook/style.xsl";
+
+    public static void main(String[] args) throws Exception {
+        int iterations = 5;
+        List<String> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("-iterations:")) {
+                iterations = Integer.parseInt(arg.substring(12));
+            } else {
+                files.add(arg);
+            }
+        }
+        String document = files.size() > 0 ? files.get(0) : DEFAULT_DOCUMENT;
+        String stylesheet = files.size() > 1 ? files.get(1) : DEFAULT_STYLESHEET;
+
+        File output = File.createTempFile("transform", ".html");
+        output.deleteOnExit();
+        List<String> tree = Arrays.asList("parse", "-xsl:" + stylesheet, "-resolver-output:quiet", document);
+        List<String> stream = new ArrayList<>(tree);
+        stream.add(2, "-o:" + output.getAbsolutePath());
+
+        System.out.println("Transforming " + document + " with " + stylesheet);
+        SampleApp app = new SampleApp();
+        PrintStream stdout = System.out;
+        long inMemory;
+        long streamed;
+        System.setOut(Fixtures.discard());
+        try {
+            // Compile the stylesheet before measuring anything
+            run(app, tree);
+            inMemory = peakHeap(app, tree, iterations);
+            streamed = peakHeap(app, stream, iterations);
+        } finally {
+            System.setOut(stdout);
+        }
+
+        System.out.printf("XdmDestination (in memory): peak heap %.1f MB%n", inMemory / 1048576.0);
+        System.out.printf("Serializer (-o, streamed):  peak heap %.1f MB (%d bytes of output)%n",
+                streamed / 1048576.0, output.length());
+    }
+
+    private static long peakHeap(SampleApp app, List<String> command, int iterations) {
+        List<MemoryPoolMXBean> pools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pools.add(pool);
+            }
+        }
+
+        System.gc();
+        for (MemoryPoolMXBean pool : pools) {
+            pool.resetPeakUsage();
+        }
+        for (int count = 0; count < iterations; count++) {
+            run(app, command);
+        }
+
+        long peak = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        return peak;
+    }
+
+    private static void run(SampleApp app, List<String> command) {
+        if (app.run(command.toArray(new String[0])) != 0) {
+            throw new IllegalStateException("Command failed: " + String.join(" ", command));
+        }
+    }
+}
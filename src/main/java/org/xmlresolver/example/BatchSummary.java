@@ -0,0 +1,61 @@
+package org.xmlresolver.example;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** Statistics for a batch of documents.
+ *
+ * <p>The workers that process a batch report each document here as it finishes. At the end
+ * of the run, the summary reports the throughput, the median and 99th percentile per-document
+ * latency, and the documents that failed.</p>
+ */
+
+class BatchSummary {
+    private final long start = System.nanoTime();
+    private final List<Long> latencies = new ArrayList<>();
+    private final List<String> failures = new ArrayList<>();
+
+    public synchronized void succeeded(String document, long nanos) {
+        latencies.add(nanos);
+    }
+
+    public synchronized void failed(String document, long nanos, String reason) {
+        latencies.add(nanos);
+        failures.add(document + ": " + reason);
+    }
+
+    /** How many documents failed (including those that weren't valid). */
+    public synchronized int getFailures() {
+        return failures.size();
+    }
+
+    public synchronized void report(PrintStream out) {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+
+        out.printf("Processed %d documents in %.2fs (%.1f docs/sec)%n", sorted.size(), seconds, sorted.size() / seconds);
+        if (!sorted.isEmpty()) {
+            out.printf("Per-document latency: p50 %.1fms, p99 %.1fms, max %.1fms%n",
+                    percentile(sorted, 50) / 1e6, percentile(sorted, 99) / 1e6, sorted.get(sorted.size() - 1) / 1e6);
+        }
+
+        if (failures.isEmpty()) {
+            out.println("No documents failed");
+        } else {
+            out.println(failures.size() + " documents failed:");
+            Collections.sort(failures);
+            for (String failure : failures) {
+                out.println("\t" + failure);
+            }
+        }
+    }
+
+    private long percentile(List<Long> sorted, int pct) {
+        // Nearest-rank percentile
+        int rank = (int) Math.ceil(pct / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+}
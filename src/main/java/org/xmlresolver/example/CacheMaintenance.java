@@ -0,0 +1,535 @@
+package org.xmlresolver.example;
+
+import com.beust.jcommander.ParameterException;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/** Look after the resolver's cache directory.
+ *
+ * <p>The resolver keeps each cached resource in the <code>data</code> directory and
+ * a description of it (where it came from, when it expires) in the <code>entry</code>
+ * directory; the file names are derived from a SHA-256 hash. A data file belongs to
+ * the entry with the same hash in its name, or to an entry that mentions its hash.
+ * Data files with no entry are orphans: the resolver will never use them again.</p>
+ *
+ * <p>The resolver doesn't record a checksum of what it cached, so verification keeps
+ * its own, in a sidecar manifest in the cache directory. A file whose modification time
+ * has changed was rewritten by the resolver and is simply hashed again; a file whose
+ * modification time hasn't changed but whose size or hash has, is corrupt.</p>
+ *
+ * <p>Caches can have hundreds of thousands of files, so the directory is scanned, and
+ * files are hashed, in parallel. Files modified in the last minute are left alone by
+ * everything that deletes, in case the resolver is still writing them.</p>
+ */
+
+class CacheMaintenance {
+    public static final String MANIFEST = "sampleapp-hashes.txt";
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+    private static final long GRACE = 60_000L;
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final int CHUNK = 512;
+
+    private final Path directory;
+    private final Path dataDir;
+    private final Path entryDir;
+    private final int threads;
+    private final PrintStream out;
+
+    /** Look after a cache.
+     *
+     * @param directory The cache directory
+     * @param threads How many threads to scan with
+     * @param out Where to report
+     */
+    public CacheMaintenance(Path directory, int threads, PrintStream out) {
+        this.directory = directory;
+        this.dataDir = directory.resolve("data");
+        this.entryDir = directory.resolve("entry");
+        this.threads = threads;
+        this.out = out;
+        if (!Files.isDirectory(dataDir)) {
+            throw new ParameterException("Not a resolver cache (there's no data directory): " + directory);
+        }
+    }
+
+    /** Describe what's in the cache. */
+    public void stats() {
+        Scan scan = scan();
+        long now = System.currentTimeMillis();
+        long bytes = 0;
+        long oldest = Long.MAX_VALUE;
+        long newest = 0;
+        Map<String, long[]> byType = new TreeMap<>();
+        long[] accessed = new long[4];
+        for (DataFile file : scan.data) {
+            bytes += file.size;
+            oldest = Math.min(oldest, file.modified);
+            newest = Math.max(newest, file.modified);
+            long[] type = byType.computeIfAbsent(file.extension(), k -> new long[2]);
+            type[0]++;
+            type[1] += file.size;
+            long age = now - file.accessed;
+            accessed[age < DAY ? 0 : age < 7 * DAY ? 1 : age < 30 * DAY ? 2 : 3]++;
+        }
+
+        out.println("Cache: " + directory);
+        out.printf("  %d data files, %s; %d entries%n", scan.data.size(), megabytes(bytes), scan.entries.size());
+        if (!scan.data.isEmpty()) {
+            out.printf("  Oldest %d days, newest %d days%n", (now - oldest) / DAY, (now - newest) / DAY);
+            out.printf("  Last used: %d in the last day, %d in the last week, %d in the last month, %d before that%n",
+                    accessed[0], accessed[1], accessed[2], accessed[3]);
+            for (Map.Entry<String, long[]> type : byType.entrySet()) {
+                out.printf("  %-8s %8d files, %s%n", type.getKey(), type.getValue()[0], megabytes(type.getValue()[1]));
+            }
+        }
+        out.printf("  %d orphaned data files, %d entries without data%n", scan.orphans().size(), scan.dangling().size());
+    }
+
+    /** Remove the least recently used resources until the cache is small enough.
+     *
+     * @param maxBytes The most the data files may take up, or 0 for no limit
+     * @param maxAge The longest since a resource was last used, in milliseconds, or 0 for no limit
+     * @param dryRun Only say what would be removed
+     * @return The number of resources removed
+     */
+    public int evict(long maxBytes, long maxAge, boolean dryRun) {
+        Scan scan = scan();
+        long now = System.currentTimeMillis();
+        List<DataFile> lru = new ArrayList<>(scan.data);
+        lru.sort((a, b) -> Long.compare(a.accessed, b.accessed));
+
+        long bytes = 0;
+        for (DataFile file : lru) {
+            bytes += file.size;
+        }
+
+        int removed = 0;
+        long freed = 0;
+        for (DataFile file : lru) {
+            boolean tooOld = maxAge > 0 && now - file.accessed > maxAge;
+            boolean tooBig = maxBytes > 0 && bytes - freed > maxBytes;
+            if (!tooOld && !tooBig) {
+                // Everything after this was used more recently
+                break;
+            }
+            if (now - file.modified < GRACE) {
+                continue;
+            }
+            if (remove(file, scan.entriesFor(file), dryRun)) {
+                removed++;
+                freed += file.size;
+            }
+        }
+
+        out.printf("%s %d resources, %s; %s left%n", dryRun ? "Would remove" : "Removed", removed,
+                megabytes(freed), megabytes(bytes - freed));
+        return removed;
+    }
+
+    /** Check the data files against the manifest of hashes, and bring it up to date.
+     *
+     * @param delete Remove corrupt resources
+     * @return The number of corrupt files
+     */
+    public int verify(boolean delete) {
+        Scan scan = scan();
+        Map<String, String[]> manifest = readManifest();
+
+        List<Future<Verified>> futures = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (DataFile file : scan.data) {
+                futures.add(pool.submit(() -> verify(file, manifest.get(file.path.getFileName().toString()))));
+            }
+
+            int verified = 0;
+            int rehashed = 0;
+            List<DataFile> corrupt = new ArrayList<>();
+            Map<String, String[]> updated = new TreeMap<>();
+            for (Future<Verified> future : futures) {
+                Verified result = future.get();
+                String name = result.file.path.getFileName().toString();
+                if (result.corrupt) {
+                    corrupt.add(result.file);
+                    out.println("Corrupt: " + result.file.path);
+                    // Keep the old hash, so that it's still reported next time if it isn't removed
+                    updated.put(name, manifest.get(name));
+                } else {
+                    updated.put(name, new String[] {result.hash, String.valueOf(result.file.size), String.valueOf(result.file.modified)});
+                    if (result.rehashed) {
+                        rehashed++;
+                    } else {
+                        verified++;
+                    }
+                }
+            }
+
+            if (delete) {
+                for (DataFile file : corrupt) {
+                    if (remove(file, scan.entriesFor(file), false)) {
+                        updated.remove(file.path.getFileName().toString());
+                    }
+                }
+            }
+
+            writeManifest(updated);
+            out.printf("%d verified, %d new or changed (hashed), %d corrupt%s%n", verified, rehashed, corrupt.size(),
+                    delete && !corrupt.isEmpty() ? " (removed)" : "");
+            return corrupt.size();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ParameterException("Interrupted");
+        } catch (ExecutionException ex) {
+            throw new ParameterException("Could not verify the cache: " + ex.getCause().getMessage());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Remove orphaned data files and entries whose data is gone.
+     *
+     * @param dryRun Only say what would be removed
+     * @return The number of files removed
+     */
+    public int compact(boolean dryRun) {
+        Scan scan = scan();
+        if (!scan.data.isEmpty() && scan.orphans().size() == scan.data.size()) {
+            // If no data file has an entry, this isn't a layout we understand
+            throw new ParameterException("None of the data files in " + directory + " has an entry; not compacting");
+        }
+
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        long freed = 0;
+        for (DataFile file : scan.orphans()) {
+            if (now - file.modified >= GRACE && delete(file.path, dryRun)) {
+                removed++;
+                freed += file.size;
+            }
+        }
+        for (EntryFile entry : scan.dangling()) {
+            if (now - entry.modified >= GRACE && delete(entry.path, dryRun)) {
+                removed++;
+            }
+        }
+
+        if (!dryRun) {
+            // Forget the hashes of files that aren't there anymore
+            Map<String, String[]> manifest = readManifest();
+            if (!manifest.isEmpty()) {
+                Set<String> names = new HashSet<>();
+                for (DataFile file : scan.data) {
+                    if (Files.exists(file.path)) {
+                        names.add(file.path.getFileName().toString());
+                    }
+                }
+                manifest.keySet().retainAll(names);
+                writeManifest(manifest);
+            }
+        }
+
+        out.printf("%s %d files, %s%n", dryRun ? "Would remove" : "Removed", removed, megabytes(freed));
+        return removed;
+    }
+
+    private boolean remove(DataFile file, List<EntryFile> entries, boolean dryRun) {
+        // The entry goes first, so the resolver never finds an entry without its data
+        for (EntryFile entry : entries) {
+            delete(entry.path, dryRun);
+        }
+        return delete(file.path, dryRun);
+    }
+
+    private boolean delete(Path path, boolean dryRun) {
+        if (dryRun) {
+            out.println("Would remove " + path);
+            return true;
+        }
+        try {
+            return Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            out.println("Could not remove " + path + ": " + ex.getMessage());
+            return false;
+        }
+    }
+
+    private Verified verify(DataFile file, String[] recorded) throws IOException {
+        Verified result = new Verified(file);
+        if (recorded != null && Long.parseLong(recorded[2]) == file.modified) {
+            if (Long.parseLong(recorded[1]) != file.size) {
+                result.corrupt = true;
+                return result;
+            }
+            result.hash = sha256(file.path);
+            result.corrupt = !result.hash.equals(recorded[0]);
+            return result;
+        }
+        result.hash = sha256(file.path);
+        result.rehashed = true;
+        return result;
+    }
+
+    private Map<String, String[]> readManifest() {
+        Map<String, String[]> manifest = new HashMap<>();
+        Path path = directory.resolve(MANIFEST);
+        if (!Files.exists(path)) {
+            return manifest;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // hash size modified name
+                String[] fields = line.split(" ", 4);
+                if (fields.length == 4) {
+                    manifest.put(fields[3], new String[] {fields[0], fields[1], fields[2]});
+                }
+            }
+        } catch (IOException ex) {
+            out.println("Could not read " + path + "; starting a new one: " + ex.getMessage());
+        }
+        return manifest;
+    }
+
+    private void writeManifest(Map<String, String[]> manifest) {
+        Path path = directory.resolve(MANIFEST);
+        try {
+            Path temp = Files.createTempFile(directory, "hashes", ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (Map.Entry<String, String[]> entry : new TreeMap<>(manifest).entrySet()) {
+                    String[] fields = entry.getValue();
+                    writer.write(fields[0] + " " + fields[1] + " " + fields[2] + " " + entry.getKey());
+                    writer.newLine();
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            throw new ParameterException("Could not write " + path + ": " + ex.getMessage());
+        }
+    }
+
+    private Scan scan() {
+        List<Path> dataPaths = list(dataDir);
+        List<Path> entryPaths = Files.isDirectory(entryDir) ? list(entryDir) : Collections.emptyList();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            Scan scan = new Scan();
+            scan.data.addAll(inParallel(pool, dataPaths, DataFile::new));
+            scan.entries.addAll(inParallel(pool, entryPaths, EntryFile::new));
+            scan.link();
+            return scan;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private List<Path> list(Path dir) {
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.forEach(paths::add);
+        } catch (IOException ex) {
+            throw new ParameterException("Could not read " + dir + ": " + ex.getMessage());
+        }
+        return paths;
+    }
+
+    /** Read each file's attributes (and, for entries, contents), a chunk of files per task. */
+    private <T> List<T> inParallel(ExecutorService pool, List<Path> paths, IOFunction<Path, T> reader) {
+        List<Future<List<T>>> futures = new ArrayList<>();
+        for (int start = 0; start < paths.size(); start += CHUNK) {
+            List<Path> chunk = paths.subList(start, Math.min(paths.size(), start + CHUNK));
+            futures.add(pool.submit(() -> {
+                List<T> results = new ArrayList<>();
+                for (Path path : chunk) {
+                    try {
+                        if (Files.isRegularFile(path)) {
+                            results.add(reader.apply(path));
+                        }
+                    } catch (IOException ex) {
+                        // It was removed while we were looking; that's fine
+                    }
+                }
+                return results;
+            }));
+        }
+
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<List<T>> future : futures) {
+                results.addAll(future.get());
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ParameterException("Interrupted");
+        } catch (ExecutionException ex) {
+            throw new ParameterException("Could not scan the cache: " + ex.getCause().getMessage());
+        }
+        return results;
+    }
+
+    private static String sha256(Path path) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buf = new byte[65536];
+            try (InputStream stream = Files.newInputStream(path)) {
+                int len;
+                while ((len = stream.read(buf)) >= 0) {
+                    digest.update(buf, 0, len);
+                }
+            }
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b & 0xff));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("No SHA-256?", ex);
+        }
+    }
+
+    private static String megabytes(long bytes) {
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    private static String hashOf(Path path) {
+        Matcher matcher = HASH.matcher(path.getFileName().toString());
+        return matcher.find() ? matcher.group() : null;
+    }
+
+    private interface IOFunction<A, B> {
+        B apply(A value) throws IOException;
+    }
+
+    private static class DataFile {
+        private final Path path;
+        private final String hash;
+        private final long size;
+        private final long modified;
+        private final long accessed;
+
+        DataFile(Path path) throws IOException {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            this.path = path;
+            this.hash = hashOf(path);
+            this.size = attrs.size();
+            this.modified = attrs.lastModifiedTime().toMillis();
+            // Without access times (noatime), the best we can do is when it was fetched
+            this.accessed = Math.max(modified, attrs.lastAccessTime().toMillis());
+        }
+
+        String extension() {
+            String name = path.getFileName().toString();
+            int dot = name.lastIndexOf('.');
+            return dot < 0 ? "(none)" : name.substring(dot).toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static class EntryFile {
+        private final Path path;
+        private final long modified;
+        private final Set<String> hashes = new HashSet<>();
+
+        EntryFile(Path path) throws IOException {
+            this.path = path;
+            this.modified = Files.getLastModifiedTime(path).toMillis();
+            String own = hashOf(path);
+            if (own != null) {
+                hashes.add(own);
+            }
+            Matcher matcher = HASH.matcher(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+            while (matcher.find()) {
+                hashes.add(matcher.group());
+            }
+        }
+    }
+
+    private static class Verified {
+        private final DataFile file;
+        private String hash = null;
+        private boolean corrupt = false;
+        private boolean rehashed = false;
+
+        Verified(DataFile file) {
+            this.file = file;
+        }
+    }
+
+    private static class Scan {
+        private final List<DataFile> data = new ArrayList<>();
+        private final List<EntryFile> entries = new ArrayList<>();
+        private final Map<String, List<EntryFile>> byHash = new HashMap<>();
+        private final Set<String> dataHashes = new HashSet<>();
+
+        void link() {
+            for (EntryFile entry : entries) {
+                for (String hash : entry.hashes) {
+                    byHash.computeIfAbsent(hash, k -> new ArrayList<>()).add(entry);
+                }
+            }
+            for (DataFile file : data) {
+                if (file.hash != null) {
+                    dataHashes.add(file.hash);
+                }
+            }
+        }
+
+        List<EntryFile> entriesFor(DataFile file) {
+            return file.hash == null ? Collections.emptyList() : byHash.getOrDefault(file.hash, Collections.emptyList());
+        }
+
+        List<DataFile> orphans() {
+            List<DataFile> orphans = new ArrayList<>();
+            for (DataFile file : data) {
+                if (file.hash != null && !byHash.containsKey(file.hash)) {
+                    orphans.add(file);
+                }
+            }
+            return orphans;
+        }
+
+        List<EntryFile> dangling() {
+            List<EntryFile> dangling = new ArrayList<>();
+            for (EntryFile entry : entries) {
+                if (entry.hashes.isEmpty()) {
+                    // It doesn't say which data it belongs to, so we can't tell
+                    continue;
+                }
+                boolean found = false;
+                for (String hash : entry.hashes) {
+                    found = found || dataHashes.contains(hash);
+                }
+                if (!found) {
+                    dangling.add(entry);
+                }
+            }
+            return dangling;
+        }
+    }
+}
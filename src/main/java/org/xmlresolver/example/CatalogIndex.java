@@ -0,0 +1,489 @@
+package org.xmlresolver.example;
+
+import org.xmlresolver.catalog.entry.Entry;
+import org.xmlresolver.catalog.entry.EntryCatalog;
+import org.xmlresolver.catalog.entry.EntryDelegatePublic;
+import org.xmlresolver.catalog.entry.EntryDelegateSystem;
+import org.xmlresolver.catalog.entry.EntryDelegateUri;
+import org.xmlresolver.catalog.entry.EntryNextCatalog;
+import org.xmlresolver.catalog.entry.EntryPublic;
+import org.xmlresolver.catalog.entry.EntryResource;
+import org.xmlresolver.catalog.entry.EntryRewriteSystem;
+import org.xmlresolver.catalog.entry.EntryRewriteUri;
+import org.xmlresolver.catalog.entry.EntrySystem;
+import org.xmlresolver.catalog.entry.EntrySystemSuffix;
+import org.xmlresolver.catalog.entry.EntryUri;
+import org.xmlresolver.catalog.entry.EntryUriSuffix;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** A compiled, memory-mapped index of the entries in a catalog.
+ *
+ * <p>Loading a large catalog means parsing it as XML every time. A compiled index
+ * holds the same entries in a compact binary form that can be memory-mapped and
+ * searched without parsing anything. The system, public, and URI entries are in
+ * hash tables; the rewrite, suffix, and delegate entries are in tables sorted by
+ * the length of their keys, so the first match is the longest.</p>
+ *
+ * <p>The index records the modification time, size, and SHA-256 hash of the catalog
+ * it was compiled from. If the catalog's timestamp or size has changed, it is hashed
+ * again; an index whose hash doesn't match is ignored.</p>
+ */
+
+class CatalogIndex {
+    private static final int MAGIC = 0x53414958; // "SAIX"
+    private static final int VERSION = 2;
+    private static final int NO_RECORD = -1;
+
+    // These are the entry types that are indexed; every entry is recorded for display
+    // purposes, but only these have keys that can be searched.
+    private static final List<Entry.Type> HASHED = Arrays.asList(
+            Entry.Type.SYSTEM, Entry.Type.PUBLIC, Entry.Type.URI);
+    private static final List<Entry.Type> SCANNED = Arrays.asList(
+            Entry.Type.REWRITE_SYSTEM, Entry.Type.SYSTEM_SUFFIX, Entry.Type.DELEGATE_SYSTEM,
+            Entry.Type.REWRITE_URI, Entry.Type.URI_SUFFIX, Entry.Type.DELEGATE_URI,
+            Entry.Type.DELEGATE_PUBLIC, Entry.Type.NEXT_CATALOG);
+    private static final byte OTHER = (byte) 0xff;
+
+    private final URI catalog;
+    private final ByteBuffer buffer;
+    private final int recordCount;
+    private final int recordStart;
+    private final int[] hashTables = new int[HASHED.size()];
+    private final int[] scanTables = new int[SCANNED.size()];
+
+    private CatalogIndex(URI catalog, ByteBuffer buffer) {
+        this.catalog = catalog;
+        this.buffer = buffer;
+
+        buffer.position(0);
+        buffer.getInt(); // magic
+        buffer.getInt(); // version
+        readString(); // source
+        buffer.getLong(); // modified
+        buffer.getLong(); // length
+        buffer.position(buffer.position() + 32); // digest
+        recordCount = buffer.getInt();
+        int tableStart = buffer.getInt();
+        recordStart = buffer.position();
+
+        buffer.position(tableStart);
+        for (int pos = 0; pos < hashTables.length; pos++) {
+            hashTables[pos] = buffer.position();
+            int slots = buffer.getInt();
+            buffer.position(buffer.position() + 4 * slots);
+        }
+        for (int pos = 0; pos < scanTables.length; pos++) {
+            scanTables[pos] = buffer.position();
+            int count = buffer.getInt();
+            buffer.position(buffer.position() + 4 * count);
+        }
+    }
+
+    /** The file that holds the index for a catalog.
+     *
+     * @param directory The index directory
+     * @param catalog The catalog URI
+     * @return The path of the index file
+     */
+    public static Path indexFile(Path directory, URI catalog) {
+        return directory.resolve(hex(sha256(catalog.toString().getBytes(StandardCharsets.UTF_8))).substring(0, 32) + ".idx");
+    }
+
+    /** Compile the index for a catalog.
+     *
+     * @param catalog The catalog URI
+     * @param entries The (parsed) catalog
+     * @param directory The index directory
+     * @return The number of entries in the index
+     * @throws IOException if the catalog cannot be read or the index cannot be written
+     */
+    public static int compile(URI catalog, EntryCatalog entries, Path directory) throws IOException {
+        byte[] content = readCatalog(catalog);
+        long[] stamp = timestamp(catalog);
+
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        DataOutputStream records = new DataOutputStream(recordBytes);
+        List<List<int[]>> hashed = new ArrayList<>();
+        for (int pos = 0; pos < HASHED.size(); pos++) {
+            hashed.add(new ArrayList<>());
+        }
+        List<List<int[]>> scanned = new ArrayList<>();
+        for (int pos = 0; pos < SCANNED.size(); pos++) {
+            scanned.add(new ArrayList<>());
+        }
+
+        // Record offsets are relative to the start of the records until we know where that is
+        int count = 0;
+        for (Entry entry : entries.entries()) {
+            String key = key(entry);
+            URI target = target(entry);
+            int offset = records.size();
+            int hashPos = HASHED.indexOf(entry.getType());
+            int scanPos = SCANNED.indexOf(entry.getType());
+            if (hashPos >= 0 && key != null && target != null) {
+                records.writeByte(hashPos);
+                hashed.get(hashPos).add(new int[] {offset, key.hashCode()});
+            } else if (scanPos >= 0 && target != null) {
+                records.writeByte(HASHED.size() + scanPos);
+                scanned.get(scanPos).add(new int[] {offset, key == null ? 0 : key.length()});
+            } else {
+                records.writeByte(OTHER);
+            }
+            writeString(records, entry.getType().name());
+            writeString(records, key == null ? "" : key);
+            writeString(records, target == null ? "" : target.toString());
+            writeString(records, entry.toString());
+            count++;
+        }
+        records.flush();
+
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        writeString(header, catalog.toString());
+        header.writeLong(stamp[0]);
+        header.writeLong(stamp[1]);
+        header.write(sha256(content));
+        header.writeInt(count);
+        int recordStart = header.size() + 4;
+        header.writeInt(recordStart + records.size());
+        header.flush();
+
+        ByteArrayOutputStream tableBytes = new ByteArrayOutputStream();
+        DataOutputStream tables = new DataOutputStream(tableBytes);
+        for (List<int[]> table : hashed) {
+            // Open addressing, at most half full
+            int slots = Integer.highestOneBit(Math.max(table.size(), 1)) * 4;
+            int[] slot = new int[slots];
+            Arrays.fill(slot, NO_RECORD);
+            for (int[] record : table) {
+                int pos = record[1] & (slots - 1);
+                while (slot[pos] != NO_RECORD) {
+                    pos = (pos + 1) & (slots - 1);
+                }
+                slot[pos] = recordStart + record[0];
+            }
+            tables.writeInt(slots);
+            for (int offset : slot) {
+                tables.writeInt(offset);
+            }
+        }
+        for (List<int[]> table : scanned) {
+            // Longest key first, so that the first match is the best match
+            table.sort((a, b) -> Integer.compare(b[1], a[1]));
+            tables.writeInt(table.size());
+            for (int[] record : table) {
+                tables.writeInt(recordStart + record[0]);
+            }
+        }
+        tables.flush();
+
+        Files.createDirectories(directory);
+        Path file = indexFile(directory, catalog);
+        Path temp = Files.createTempFile(directory, "index", ".tmp");
+        try {
+            Files.write(temp, headerBytes.toByteArray());
+            Files.write(temp, recordBytes.toByteArray(), StandardOpenOption.APPEND);
+            Files.write(temp, tableBytes.toByteArray(), StandardOpenOption.APPEND);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+
+        return count;
+    }
+
+    /** Open the index for a catalog.
+     *
+     * @param directory The index directory
+     * @param catalog The catalog URI
+     * @return The index, or null if there is no index or it is out of date
+     */
+    public static CatalogIndex open(Path directory, URI catalog) {
+        Path file = indexFile(directory, catalog);
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        try {
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            CatalogIndex index = new CatalogIndex(catalog, buffer);
+            buffer.position(8);
+            if (!catalog.toString().equals(index.readString())) {
+                return null;
+            }
+            long modified = buffer.getLong();
+            long length = buffer.getLong();
+            byte[] digest = new byte[32];
+            buffer.get(digest);
+
+            long[] stamp = timestamp(catalog);
+            if (stamp[0] != modified || stamp[1] != length) {
+                // It may have been touched without being changed
+                if (!Arrays.equals(digest, sha256(readCatalog(catalog)))) {
+                    return null;
+                }
+            }
+            return index;
+        } catch (IOException | RuntimeException ex) {
+            // A missing catalog or a corrupt index is just an index we can't use
+            return null;
+        }
+    }
+
+    public URI getCatalog() {
+        return catalog;
+    }
+
+    /** Visit the entries in the catalog, in catalog order.
+     *
+     * @param visitor The visitor; it's passed the type of each entry, its {@link #key(Entry) key}
+     * (or null), and the entry formatted as {@link Entry#toString()} formats it.
+     */
+    public void forEachEntry(EntryVisitor visitor) {
+        ByteBuffer buf = buffer.duplicate();
+        buf.position(recordStart);
+        for (int count = 0; count < recordCount; count++) {
+            buf.get(); // table
+            Entry.Type type = Entry.Type.valueOf(readString(buf));
+            String key = readString(buf);
+            skipString(buf); // target
+            visitor.entry(type, key.isEmpty() ? null : key, readString(buf));
+        }
+    }
+
+    /** The number of entries in the catalog. */
+    public int size() {
+        return recordCount;
+    }
+
+    /** Find a system identifier in this catalog.
+     *
+     * @param systemId The system identifier
+     * @return The resolved URI, or null if there isn't one or if the answer depends on
+     * delegation or a next catalog that the index doesn't follow.
+     */
+    public URI lookupSystem(String systemId) {
+        return lookup(systemId, Entry.Type.SYSTEM, Entry.Type.REWRITE_SYSTEM, Entry.Type.SYSTEM_SUFFIX);
+    }
+
+    /** Find a URI in this catalog.
+     *
+     * @param uri The URI
+     * @return The resolved URI, or null if there isn't one or if the answer depends on
+     * delegation or a next catalog that the index doesn't follow.
+     */
+    public URI lookupURI(String uri) {
+        return lookup(uri, Entry.Type.URI, Entry.Type.REWRITE_URI, Entry.Type.URI_SUFFIX);
+    }
+
+    /** Does this catalog delegate or chain to other catalogs? */
+    public boolean hasNextCatalogs() {
+        for (Entry.Type type : Arrays.asList(Entry.Type.DELEGATE_SYSTEM, Entry.Type.DELEGATE_URI,
+                Entry.Type.DELEGATE_PUBLIC, Entry.Type.NEXT_CATALOG)) {
+            if (buffer.getInt(scanTables[SCANNED.indexOf(type)]) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private URI lookup(String key, Entry.Type exact, Entry.Type rewrite, Entry.Type suffix) {
+        if (key == null) {
+            return null;
+        }
+        ByteBuffer buf = buffer.duplicate();
+
+        int table = hashTables[HASHED.indexOf(exact)];
+        int slots = buf.getInt(table);
+        int pos = key.hashCode() & (slots - 1);
+        int offset;
+        while ((offset = buf.getInt(table + 4 + 4 * pos)) != NO_RECORD) {
+            seekKey(buf, offset);
+            if (key.equals(readString(buf))) {
+                return URI.create(readString(buf));
+            }
+            pos = (pos + 1) & (slots - 1);
+        }
+
+        table = scanTables[SCANNED.indexOf(rewrite)];
+        for (int count = 0; count < buf.getInt(table); count++) {
+            seekKey(buf, buf.getInt(table + 4 + 4 * count));
+            String prefix = readString(buf);
+            if (key.startsWith(prefix)) {
+                return URI.create(readString(buf) + key.substring(prefix.length()));
+            }
+        }
+
+        table = scanTables[SCANNED.indexOf(suffix)];
+        for (int count = 0; count < buf.getInt(table); count++) {
+            seekKey(buf, buf.getInt(table + 4 + 4 * count));
+            if (key.endsWith(readString(buf))) {
+                return URI.create(readString(buf));
+            }
+        }
+
+        return null;
+    }
+
+    /** The key of a catalog entry.
+     *
+     * @param entry The entry
+     * @return The identifier, URI, prefix, or suffix that the entry matches, or null for entries
+     * that don't have one.
+     */
+    public static String key(Entry entry) {
+        switch (entry.getType()) {
+            case SYSTEM:
+                return ((EntrySystem) entry).systemId;
+            case PUBLIC:
+                return ((EntryPublic) entry).publicId;
+            case URI:
+                return ((EntryUri) entry).name;
+            case REWRITE_SYSTEM:
+                return ((EntryRewriteSystem) entry).systemIdStart;
+            case REWRITE_URI:
+                return ((EntryRewriteUri) entry).uriStart;
+            case SYSTEM_SUFFIX:
+                return ((EntrySystemSuffix) entry).systemIdSuffix;
+            case URI_SUFFIX:
+                return ((EntryUriSuffix) entry).uriSuffix;
+            case DELEGATE_PUBLIC:
+                return ((EntryDelegatePublic) entry).publicIdStart;
+            case DELEGATE_SYSTEM:
+                return ((EntryDelegateSystem) entry).systemIdStart;
+            case DELEGATE_URI:
+                return ((EntryDelegateUri) entry).uriStart;
+            default:
+                return null;
+        }
+    }
+
+    /** The target of a catalog entry.
+     *
+     * @param entry The entry
+     * @return The resource, rewrite prefix, or catalog that the entry points to, or null for
+     * entries that don't have one.
+     */
+    public static URI target(Entry entry) {
+        switch (entry.getType()) {
+            case REWRITE_SYSTEM:
+                return ((EntryRewriteSystem) entry).rewritePrefix;
+            case REWRITE_URI:
+                return ((EntryRewriteUri) entry).rewritePrefix;
+            case DELEGATE_PUBLIC:
+                return ((EntryDelegatePublic) entry).catalog;
+            case DELEGATE_SYSTEM:
+                return ((EntryDelegateSystem) entry).catalog;
+            case DELEGATE_URI:
+                return ((EntryDelegateUri) entry).catalog;
+            case NEXT_CATALOG:
+                return ((EntryNextCatalog) entry).catalog;
+            default:
+                if (entry instanceof EntryResource) {
+                    return ((EntryResource) entry).getResourceURI();
+                }
+                return null;
+        }
+    }
+
+    private String readString() {
+        return readString(buffer);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        byte[] bytes = new byte[length];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void seekKey(ByteBuffer buf, int offset) {
+        buf.position(offset + 1); // table
+        skipString(buf); // type
+    }
+
+    private static void skipString(ByteBuffer buf) {
+        int length = buf.getInt();
+        buf.position(buf.position() + length);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static long[] timestamp(URI catalog) throws IOException {
+        if ("file".equals(catalog.getScheme())) {
+            Path path = Paths.get(catalog);
+            return new long[] {Files.getLastModifiedTime(path).toMillis(), Files.size(path)};
+        }
+        URLConnection conn = catalog.toURL().openConnection();
+        try (InputStream ignored = conn.getInputStream()) {
+            return new long[] {conn.getLastModified(), conn.getContentLengthLong()};
+        }
+    }
+
+    private static byte[] readCatalog(URI catalog) throws IOException {
+        try (InputStream in = catalog.toURL().openStream()) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len = in.read(buf)) >= 0) {
+                out.write(buf, 0, len);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] sha256(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /** Receives the entries of a catalog. */
+    interface EntryVisitor {
+        void entry(Entry.Type type, String key, String display);
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,172 @@
+package org.xmlresolver.example;
+
+import com.beust.jcommander.ParameterException;
+import org.xmlresolver.catalog.entry.Entry;
+import org.xmlresolver.catalog.entry.EntryCatalog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/** The entries of one catalog, indexed by key for the show command.
+ *
+ * <p>Each entry is kept as its type, its key, and its display form. The system,
+ * public, and URI entries are also in a hash table by key, so asking which entries
+ * apply to a particular identifier doesn't mean looking at every entry. Only the
+ * prefix and suffix entries have to be scanned.</p>
+ */
+
+class CatalogListing {
+    private final List<Entry.Type> types = new ArrayList<>();
+    private final List<String> keys = new ArrayList<>();
+    private final List<String> displays = new ArrayList<>();
+    private final Map<String, List<Integer>> exact = new HashMap<>();
+    private final List<Integer> partial = new ArrayList<>();
+
+    private CatalogListing() {
+        // use of() or the index
+    }
+
+    public static CatalogListing of(EntryCatalog catalog) {
+        CatalogListing listing = new CatalogListing();
+        for (Entry entry : catalog.entries()) {
+            listing.add(entry.getType(), CatalogIndex.key(entry), entry.toString());
+        }
+        return listing;
+    }
+
+    public static CatalogListing of(CatalogIndex index) {
+        CatalogListing listing = new CatalogListing();
+        index.forEachEntry(listing::add);
+        return listing;
+    }
+
+    private void add(Entry.Type type, String key, String display) {
+        int pos = types.size();
+        types.add(type);
+        keys.add(key);
+        displays.add(display);
+        if (key != null) {
+            if (type == Entry.Type.SYSTEM || type == Entry.Type.PUBLIC || type == Entry.Type.URI) {
+                exact.computeIfAbsent(type + " " + key, k -> new ArrayList<>()).add(pos);
+            } else {
+                partial.add(pos);
+            }
+        }
+    }
+
+    public int size() {
+        return types.size();
+    }
+
+    /** Find the entries that match a filter.
+     *
+     * @param filter The filter
+     * @param limit The maximum number of entries to return
+     * @return The display form of the matching entries, in catalog order
+     */
+    public List<String> select(Filter filter, int limit) {
+        List<Integer> candidates;
+        if (filter.identifiers()) {
+            candidates = new ArrayList<>();
+            addExact(candidates, Entry.Type.SYSTEM, filter.systemId);
+            addExact(candidates, Entry.Type.PUBLIC, filter.publicId);
+            addExact(candidates, Entry.Type.URI, filter.uri);
+            for (int pos : partial) {
+                if (filter.matchesPartial(types.get(pos), keys.get(pos))) {
+                    candidates.add(pos);
+                }
+            }
+            Collections.sort(candidates);
+        } else {
+            candidates = null;
+        }
+
+        List<String> results = new ArrayList<>();
+        int count = candidates == null ? types.size() : candidates.size();
+        for (int idx = 0; idx < count && results.size() < limit; idx++) {
+            int pos = candidates == null ? idx : candidates.get(idx);
+            if (filter.matches(types.get(pos), displays.get(pos))) {
+                results.add(displays.get(pos));
+            }
+        }
+        return results;
+    }
+
+    private void addExact(List<Integer> candidates, Entry.Type type, String key) {
+        if (key != null) {
+            candidates.addAll(exact.getOrDefault(type + " " + key, Collections.emptyList()));
+        }
+    }
+
+    /** What the show command is looking for.
+     *
+     * <p>The identifier filters select the entries that would apply to that identifier:
+     * entries with the same key, and rewrite, suffix, and delegate entries whose prefix
+     * or suffix matches it. If more than one is given, an entry that applies to any of
+     * them is selected. The type and regular expression filters further restrict
+     * the selection.</p>
+     */
+    static class Filter {
+        private final Entry.Type type;
+        private final Pattern regex;
+        private final String systemId;
+        private final String publicId;
+        private final String uri;
+
+        public Filter(String type, String regex, String systemId, String publicId, String uri) {
+            this.type = type == null ? null : parseType(type);
+            this.regex = regex == null ? null : Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+            this.systemId = systemId;
+            this.publicId = publicId;
+            this.uri = uri;
+        }
+
+        /** Is this filter anything more than a regular expression? */
+        public boolean isSelective() {
+            return identifiers() || regex != null || type != null;
+        }
+
+        private boolean identifiers() {
+            return systemId != null || publicId != null || uri != null;
+        }
+
+        private boolean matches(Entry.Type entryType, String display) {
+            return (type == null || type == entryType) && (regex == null || regex.matcher(display).find());
+        }
+
+        private boolean matchesPartial(Entry.Type entryType, String key) {
+            switch (entryType) {
+                case REWRITE_SYSTEM:
+                case DELEGATE_SYSTEM:
+                    return systemId != null && systemId.startsWith(key);
+                case SYSTEM_SUFFIX:
+                    return systemId != null && systemId.endsWith(key);
+                case DELEGATE_PUBLIC:
+                    return publicId != null && publicId.startsWith(key);
+                case REWRITE_URI:
+                case DELEGATE_URI:
+                    return uri != null && uri.startsWith(key);
+                case URI_SUFFIX:
+                    return uri != null && uri.endsWith(key);
+                default:
+                    return false;
+            }
+        }
+
+        private static Entry.Type parseType(String name) {
+            // rewriteSystem, rewrite-system, and REWRITE_SYSTEM are all the same type
+            String normalized = name.replaceAll("[-_]", "").toLowerCase(Locale.ROOT);
+            for (Entry.Type type : Entry.Type.values()) {
+                if (type.name().replace("_", "").toLowerCase(Locale.ROOT).equals(normalized)) {
+                    return type;
+                }
+            }
+            throw new ParameterException("Invalid entry type: " + name);
+        }
+    }
+}
@@ -0,0 +1,466 @@
+package org.xmlresolver.example;
+
+import com.beust.jcommander.ParameterException;
+import org.xmlresolver.CatalogManager;
+import org.xmlresolver.catalog.entry.Entry;
+import org.xmlresolver.catalog.entry.EntryCatalog;
+import org.xmlresolver.catalog.entry.EntryPublic;
+import org.xmlresolver.catalog.entry.EntryUri;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/** Replace the one-by-one entries in a catalog with rewrite entries.
+ *
+ * <p>A catalog often lists every file in a schema with its own <code>system</code>
+ * (or <code>uri</code>) entry, even though every identifier and every file share a
+ * common prefix: <code>https://example.com/schema/a.dtd</code> is
+ * <code>schema/a.dtd</code>, <code>https://example.com/schema/b.mod</code> is
+ * <code>schema/b.mod</code>, and so on. Each group of entries like that can be
+ * replaced by a single <code>rewriteSystem</code> (or <code>rewriteURI</code>).</p>
+ *
+ * <p>Each entry is assigned to a group by the longest common suffix of its key and its
+ * target that starts with a path segment. An entry is only dropped if the rewrite for
+ * its group is the longest rewrite that matches it, so it can't be captured by some other
+ * rule. Public identifiers can't be rewritten, and <code>uri</code> entries that have a
+ * nature or purpose are namespace entries as well, so those are kept as they are.</p>
+ *
+ * <p>A rewrite isn't quite the same as the entries it replaces: it matches <em>every</em>
+ * identifier that starts with its prefix, not just the ones that were listed. An
+ * identifier the original catalog didn't have used to fall through to the next catalog
+ * (or the network); now it's rewritten to a local file that probably doesn't exist.
+ * {@link #compare} probes each rewrite with such an identifier so that this can be
+ * reported.</p>
+ *
+ * <p>The optimized catalog keeps the original's <code>prefer</code> setting, and any
+ * <code>public</code> entry that had a different one (from a <code>group</code>) is
+ * written in a group of its own. Everything else about a group, and any
+ * <code>xml:base</code>, is already accounted for: the targets are written relative to
+ * the new catalog from their resolved URIs.</p>
+ */
+
+class CatalogOptimizer {
+    private static final String NS = "urn:oasis:names:tc:entity:xmlns:xml:catalog";
+    private static final String UNLISTED = "sampleapp-unlisted";
+    private static final List<Entry.Type> LOOKUP_SYSTEM = Arrays.asList(Entry.Type.SYSTEM,
+            Entry.Type.REWRITE_SYSTEM, Entry.Type.SYSTEM_SUFFIX, Entry.Type.DELEGATE_SYSTEM);
+    private static final List<Entry.Type> LOOKUP_PUBLIC = Arrays.asList(Entry.Type.PUBLIC, Entry.Type.DELEGATE_PUBLIC);
+    private static final List<Entry.Type> LOOKUP_URI = Arrays.asList(Entry.Type.URI,
+            Entry.Type.REWRITE_URI, Entry.Type.URI_SUFFIX, Entry.Type.DELEGATE_URI);
+
+    private final List<Entry> original;
+    private final boolean preferPublic;
+    private final List<Object> optimized = new ArrayList<>();
+
+    /** Work out the optimized catalog.
+     *
+     * @param catalog The original catalog
+     * @param minimum The fewest entries a rewrite must replace to be worth having
+     */
+    public CatalogOptimizer(EntryCatalog catalog, int minimum) {
+        List<Entry> entries = catalog.entries();
+        original = entries;
+        preferPublic = catalog.preferPublic;
+        for (Entry entry : entries) {
+            Entry.Type type = entry.getType();
+            if (type != Entry.Type.GROUP && type != Entry.Type.CATALOG && type != Entry.Type.NEXT_CATALOG
+                    && !LOOKUP_SYSTEM.contains(type) && !LOOKUP_PUBLIC.contains(type) && !LOOKUP_URI.contains(type)) {
+                throw new ParameterException("The optimize command can't rewrite catalogs with " + type + " entries");
+            }
+        }
+
+        Map<Entry, Rule> groups = new LinkedHashMap<>();
+        Map<String, Rule> rules = new LinkedHashMap<>();
+        for (Entry entry : entries) {
+            Rule rule = candidate(entry);
+            if (rule != null) {
+                String key = rule.type + " " + rule.prefix + " " + rule.target;
+                if (rules.containsKey(key)) {
+                    rule = rules.get(key);
+                } else {
+                    rules.put(key, rule);
+                }
+                rule.members.add(entry);
+                groups.put(entry, rule);
+            }
+        }
+
+        // Existing rewrites count too when working out which rule an identifier would match
+        List<Rule> chosen = new ArrayList<>();
+        Set<String> existing = new HashSet<>();
+        for (Entry entry : entries) {
+            if (entry.getType() == Entry.Type.REWRITE_SYSTEM || entry.getType() == Entry.Type.REWRITE_URI) {
+                chosen.add(new Rule(entry.getType(), CatalogIndex.key(entry), String.valueOf(CatalogIndex.target(entry))));
+                existing.add(entry.getType() + " " + CatalogIndex.key(entry));
+            }
+        }
+        for (Rule rule : rules.values()) {
+            if (rule.members.size() >= minimum && !existing.contains(rule.type + " " + rule.prefix)) {
+                rule.chosen = true;
+                chosen.add(rule);
+            }
+        }
+
+        Set<Rule> written = new HashSet<>();
+        for (Entry entry : entries) {
+            Rule rule = groups.get(entry);
+            if (rule != null && rule.chosen && longest(chosen, rule.type, CatalogIndex.key(entry)) == rule) {
+                if (written.add(rule)) {
+                    optimized.add(rule);
+                }
+                rule.replaced++;
+            } else if (entry.getType() != Entry.Type.GROUP && entry.getType() != Entry.Type.CATALOG) {
+                optimized.add(entry);
+            }
+        }
+    }
+
+    /** How many entries the original catalog has.
+     *
+     * @return The number of entries (not counting groups)
+     */
+    public int originalSize() {
+        int count = 0;
+        for (Entry entry : original) {
+            if (entry.getType() != Entry.Type.GROUP && entry.getType() != Entry.Type.CATALOG) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** How many entries the optimized catalog has.
+     *
+     * @return The number of entries
+     */
+    public int optimizedSize() {
+        return optimized.size();
+    }
+
+    /** The rewrites that replaced entries.
+     *
+     * @return One line for each rewrite
+     */
+    public List<String> rewrites() {
+        List<String> lines = new ArrayList<>();
+        for (Object item : optimized) {
+            if (item instanceof Rule) {
+                Rule rule = (Rule) item;
+                lines.add(element(rule.type) + " " + rule.prefix + " → " + rule.target + " replaces " + rule.replaced + " entries");
+            }
+        }
+        return lines;
+    }
+
+    /** Write the optimized catalog.
+     *
+     * <p>File URIs are written relative to the new catalog where they can be.</p>
+     *
+     * @param catalog Where to write it
+     * @throws IOException if it can't be written
+     */
+    public void write(Path catalog) throws IOException {
+        URI base = catalog.toAbsolutePath().getParent().toUri();
+        try (BufferedWriter writer = Files.newBufferedWriter(catalog, StandardCharsets.UTF_8)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            writer.newLine();
+            writer.write("<catalog xmlns=\"" + NS + "\" prefer=\"" + prefer(preferPublic) + "\">");
+            writer.newLine();
+            Boolean group = null;
+            for (Object item : optimized) {
+                // Public entries that don't share the catalog's preference go in a group
+                Boolean prefer = null;
+                if (item instanceof EntryPublic && ((EntryPublic) item).preferPublic != preferPublic) {
+                    prefer = ((EntryPublic) item).preferPublic;
+                }
+                if (group != null && !group.equals(prefer)) {
+                    writer.write("  </group>");
+                    writer.newLine();
+                    group = null;
+                }
+                if (prefer != null && group == null) {
+                    writer.write("  <group prefer=\"" + prefer(prefer) + "\">");
+                    writer.newLine();
+                    group = prefer;
+                }
+
+                writer.write(group == null ? "  " : "    ");
+                if (item instanceof Rule) {
+                    Rule rule = (Rule) item;
+                    String start = rule.type == Entry.Type.REWRITE_SYSTEM ? "systemIdStartString" : "uriStartString";
+                    writer.write(empty(element(rule.type), start, rule.prefix, "rewritePrefix", relative(base, rule.target)));
+                } else {
+                    writer.write(serialize((Entry) item, base));
+                }
+                writer.newLine();
+            }
+            if (group != null) {
+                writer.write("  </group>");
+                writer.newLine();
+            }
+            writer.write("</catalog>");
+            writer.newLine();
+        }
+    }
+
+    /** Look up every key from the original catalog in both catalogs.
+     *
+     * <p>Public identifiers are looked up twice, once on their own and once with a
+     * system identifier that nothing matches, so that a change in preference shows up.
+     * Each new rewrite is also tried with an identifier that wasn't in the original
+     * catalog; if that resolves differently, the rewrite has widened what the catalog
+     * matches.</p>
+     *
+     * @param before A catalog manager for the original catalog
+     * @param after A catalog manager for the optimized catalog
+     * @param iterations How many times to repeat the lookups for timing
+     * @return The keys that resolved differently, the widened rewrites, and the total lookup time for each
+     */
+    public Comparison compare(CatalogManager before, CatalogManager after, int iterations) {
+        Comparison comparison = new Comparison();
+        Set<String> keys = new HashSet<>();
+        for (Entry entry : original) {
+            String key = CatalogIndex.key(entry);
+            if (key != null) {
+                keys.add(key);
+                URI expected = lookup(before, entry.getType(), key);
+                URI actual = lookup(after, entry.getType(), key);
+                if (!Objects.equals(expected, actual)) {
+                    comparison.mismatches.add(key + ": " + expected + " became " + actual);
+                }
+                if (LOOKUP_PUBLIC.contains(entry.getType())) {
+                    String systemId = "urn:" + UNLISTED;
+                    expected = before.lookupPublic(systemId, key);
+                    actual = after.lookupPublic(systemId, key);
+                    if (!Objects.equals(expected, actual)) {
+                        comparison.mismatches.add(key + " (with a system identifier): " + expected + " became " + actual);
+                    }
+                }
+            }
+        }
+
+        for (Object item : optimized) {
+            if (item instanceof Rule) {
+                Rule rule = (Rule) item;
+                String probe = rule.prefix + UNLISTED;
+                while (keys.contains(probe)) {
+                    probe = probe + "-";
+                }
+                URI expected = lookup(before, rule.type, probe);
+                URI actual = lookup(after, rule.type, probe);
+                if (!Objects.equals(expected, actual)) {
+                    comparison.widened.add(element(rule.type) + " " + rule.prefix + " also matches identifiers the original catalog didn't list: "
+                            + probe + " was " + expected + ", now " + actual);
+                }
+            }
+        }
+
+        comparison.beforeNanos = time(before, iterations);
+        comparison.afterNanos = time(after, iterations);
+        return comparison;
+    }
+
+    private long time(CatalogManager manager, int iterations) {
+        long start = System.nanoTime();
+        for (int count = 0; count < iterations; count++) {
+            for (Entry entry : original) {
+                String key = CatalogIndex.key(entry);
+                if (key != null) {
+                    lookup(manager, entry.getType(), key);
+                }
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static URI lookup(CatalogManager manager, Entry.Type type, String key) {
+        if (LOOKUP_SYSTEM.contains(type)) {
+            return manager.lookupSystem(key);
+        }
+        if (LOOKUP_PUBLIC.contains(type)) {
+            return manager.lookupPublic(null, key);
+        }
+        return manager.lookupURI(key);
+    }
+
+    /** The rewrite that would replace an entry, if there is one. */
+    private static Rule candidate(Entry entry) {
+        Entry.Type rewrite;
+        if (entry.getType() == Entry.Type.SYSTEM) {
+            rewrite = Entry.Type.REWRITE_SYSTEM;
+        } else if (entry.getType() == Entry.Type.URI && ((EntryUri) entry).nature == null && ((EntryUri) entry).purpose == null) {
+            rewrite = Entry.Type.REWRITE_URI;
+        } else {
+            return null;
+        }
+
+        String key = CatalogIndex.key(entry);
+        URI targetURI = CatalogIndex.target(entry);
+        if (key == null || targetURI == null) {
+            return null;
+        }
+        String target = targetURI.toString();
+
+        int common = 0;
+        while (common < key.length() && common < target.length()
+                && key.charAt(key.length() - 1 - common) == target.charAt(target.length() - 1 - common)) {
+            common++;
+        }
+
+        // The shortest prefix that ends with a "/" and leaves the rest in common
+        int split = key.indexOf('/', key.length() - common);
+        if (split < 0 || split == key.length() - 1) {
+            return null;
+        }
+        split++;
+        String prefix = key.substring(0, split);
+        String targetPrefix = target.substring(0, target.length() - (key.length() - split));
+        if (!targetPrefix.endsWith("/")) {
+            return null;
+        }
+        return new Rule(rewrite, prefix, targetPrefix);
+    }
+
+    private static Rule longest(List<Rule> rules, Entry.Type type, String key) {
+        Rule best = null;
+        for (Rule rule : rules) {
+            if (rule.type == type && key.startsWith(rule.prefix)
+                    && (best == null || rule.prefix.length() > best.prefix.length())) {
+                best = rule;
+            }
+        }
+        return best;
+    }
+
+    private static String serialize(Entry entry, URI base) {
+        String key = CatalogIndex.key(entry);
+        String target = relative(base, String.valueOf(CatalogIndex.target(entry)));
+        String name = element(entry.getType());
+        switch (entry.getType()) {
+            case SYSTEM:
+                return empty(name, "systemId", key, "uri", target);
+            case PUBLIC:
+                return empty(name, "publicId", key, "uri", target);
+            case URI:
+                EntryUri uri = (EntryUri) entry;
+                return empty(name, "name", key, "uri", target, "nature", uri.nature, "purpose", uri.purpose);
+            case REWRITE_SYSTEM:
+                return empty(name, "systemIdStartString", key, "rewritePrefix", target);
+            case REWRITE_URI:
+                return empty(name, "uriStartString", key, "rewritePrefix", target);
+            case SYSTEM_SUFFIX:
+                return empty(name, "systemIdSuffix", key, "uri", target);
+            case URI_SUFFIX:
+                return empty(name, "uriSuffix", key, "uri", target);
+            case DELEGATE_PUBLIC:
+                return empty(name, "publicIdStartString", key, "catalog", target);
+            case DELEGATE_SYSTEM:
+                return empty(name, "systemIdStartString", key, "catalog", target);
+            case DELEGATE_URI:
+                return empty(name, "uriStartString", key, "catalog", target);
+            default:
+                return empty(name, "catalog", target);
+        }
+    }
+
+    private static String prefer(boolean preferPublic) {
+        return preferPublic ? "public" : "system";
+    }
+
+    private static String element(Entry.Type type) {
+        switch (type) {
+            case REWRITE_SYSTEM:
+                return "rewriteSystem";
+            case REWRITE_URI:
+                return "rewriteURI";
+            case SYSTEM_SUFFIX:
+                return "systemSuffix";
+            case URI_SUFFIX:
+                return "uriSuffix";
+            case DELEGATE_PUBLIC:
+                return "delegatePublic";
+            case DELEGATE_SYSTEM:
+                return "delegateSystem";
+            case DELEGATE_URI:
+                return "delegateURI";
+            case NEXT_CATALOG:
+                return "nextCatalog";
+            default:
+                return type.name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static String empty(String name, String... attributes) {
+        StringBuilder sb = new StringBuilder("<").append(name);
+        for (int pos = 0; pos + 1 < attributes.length; pos += 2) {
+            if (attributes[pos + 1] != null) {
+                sb.append(' ').append(attributes[pos]).append("=\"").append(escape(attributes[pos + 1])).append('"');
+            }
+        }
+        return sb.append("/>").toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;");
+    }
+
+    private static String relative(URI base, String target) {
+        URI uri = URI.create(target);
+        if (!"file".equals(uri.getScheme())) {
+            return target;
+        }
+        return base.relativize(uri).toString();
+    }
+
+    private static class Rule {
+        private final Entry.Type type;
+        private final String prefix;
+        private final String target;
+        private final List<Entry> members = new ArrayList<>();
+        private boolean chosen = false;
+        private int replaced = 0;
+
+        Rule(Entry.Type type, String prefix, String target) {
+            this.type = type;
+            this.prefix = prefix;
+            this.target = target;
+        }
+    }
+
+    /** The result of replaying the original keys. */
+    static class Comparison {
+        private final List<String> mismatches = new ArrayList<>();
+        private final List<String> widened = new ArrayList<>();
+        private long beforeNanos = 0;
+        private long afterNanos = 0;
+
+        public List<String> getMismatches() {
+            return mismatches;
+        }
+
+        public List<String> getWidened() {
+            return widened;
+        }
+
+        public long getBeforeNanos() {
+            return beforeNanos;
+        }
+
+        public long getAfterNanos() {
+            return afterNanos;
+        }
+    }
+}
@@ -21,32 +21,79 @@ import java.net.URI;
  * <p>This resolver is just a wrapper around the real resolver. It prints very
  * chatty messages about the results of attempts to resolve system identifiers
  * and URIs.</p>
+ *
+ * <p>What it says, and where, is up to the {@link ResolutionLog}. It also times
+ * every call for the {@link ResolutionMetrics}.</p>
  */
 
 public class ChattyResolver implements EntityResolver2, URIResolver, LSResourceResolver {
     private final EntityResolver parent;
+    private final ResolutionLog log;
+    private final ResolutionMetrics.Recorder metrics;
 
     public ChattyResolver(EntityResolver parent) {
+        this(parent, ResolutionLog.create("human", null, System.out), null);
+    }
+
+    public ChattyResolver(EntityResolver parent, ResolutionLog log, ResolutionMetrics.Recorder metrics) {
         this.parent = parent;
+        this.log = log;
+        this.metrics = metrics;
+    }
+
+    /** Write out anything the log is holding back for the calling thread.
+     *
+     * <p>Call this when a thread finishes a unit of work, a document, for example.</p>
+     */
+    public void flush() {
+        log.flush();
+    }
+
+    private void record(String entryPoint, long start, String base, String href, Object source) {
+        if (metrics != null) {
+            long elapsed = System.nanoTime() - start;
+            URI resolved = null;
+            if (source instanceof ResolverInputSource) {
+                resolved = ((ResolverInputSource) source).resolvedURI;
+            } else if (source instanceof ResolverSAXSource) {
+                resolved = ((ResolverSAXSource) source).resolvedURI;
+            } else if (source instanceof ResolverLSInput) {
+                resolved = ((ResolverLSInput) source).resolvedURI;
+            }
+            boolean recalled = MemoizingResolver.recalled();
+            // What was asked for only matters for a miss (network or not), so don't build it otherwise
+            URI requested = resolved == null && !recalled ? requested(base, href) : null;
+            metrics.record(entryPoint, requested, resolved, recalled, elapsed);
+        }
+    }
+
+    private static URI requested(String base, String href) {
+        if (href == null) {
+            return null;
+        }
+        try {
+            return base == null ? URI.create(href) : URI.create(base).resolve(href);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
     }
 
     @Override
     public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
         InputSource source = null;
         if (parent != null) {
+            long start = System.nanoTime();
             source = parent.resolveEntity(publicId, systemId);
-        }
-        if (source instanceof ResolverInputSource) {
-            if (publicId == null) {
-                System.out.println("✓ Resolved: " + systemId);
-            } else {
-                System.out.println("✓ Resolved: " + systemId + " (" + publicId + ")");
-            }
-            System.out.println("        as: " + source.getSystemId());
-            System.out.println("      from: " + ((ResolverInputSource) source).resolvedURI);
-        } else {
-            if (!systemId.startsWith("file:")) {
-                System.out.println("✗ Resolved: " + systemId);
+            record("resolveEntity", start, null, systemId, source);
+        }
+        if (log.isEnabled()) {
+            if (source instanceof ResolverInputSource) {
+                log.log(new ResolutionLog.Event("resolveEntity", source.getSystemId(), ((ResolverInputSource) source).resolvedURI,
+                        () -> publicId == null ? systemId : systemId + " (" + publicId + ")",
+                        "publicId", publicId, "systemId", systemId));
+            } else if (!systemId.startsWith("file:")) {
+                log.log(new ResolutionLog.Event("resolveEntity", null, null, () -> systemId,
+                        "publicId", publicId, "systemId", systemId));
             }
         }
         return source;
@@ -56,30 +103,22 @@ public class ChattyResolver implements EntityResolver2, URIResolver, LSResourceR
     public InputSource getExternalSubset(String name, String baseURI) throws SAXException, IOException {
         InputSource source = null;
         if (parent != null) {
+            long start = System.nanoTime();
             source = ((EntityResolver2) parent).getExternalSubset(name, baseURI);
-        }
-        if (source instanceof ResolverInputSource) {
-            if (baseURI == null) {
-                System.out.println("✓ Resolved: " + name);
-            } else {
-                if (name == null) {
-                    System.out.println("✓ Resolved: " + baseURI);
-                } else {
-                    System.out.println("✓ Resolved: " + name + " (" + baseURI + ")");
-                }
-            }
-            System.out.println("        as: " + source.getSystemId());
-            System.out.println("      from: " + ((ResolverInputSource) source).resolvedURI);
-        } else {
-            if (baseURI == null) {
-                System.out.println("✗ Resolved: " + name);
-            } else {
-                if (name == null) {
-                    System.out.println("✗ Resolved: " + baseURI);
-                } else {
-                    System.out.println("✗ Resolved: " + name + " (" + baseURI + ")");
-                }
-            }
+            record("getExternalSubset", start, null, null, source);
+        }
+        if (log.isEnabled()) {
+            boolean resolved = source instanceof ResolverInputSource;
+            log.log(new ResolutionLog.Event("getExternalSubset",
+                    resolved ? source.getSystemId() : null,
+                    resolved ? ((ResolverInputSource) source).resolvedURI : null,
+                    () -> {
+                        if (baseURI == null) {
+                            return name;
+                        }
+                        return name == null ? baseURI : name + " (" + baseURI + ")";
+                    },
+                    "name", name, "baseURI", baseURI));
         }
         return source;
     }
@@ -88,30 +127,34 @@ public class ChattyResolver implements EntityResolver2, URIResolver, LSResourceR
     public InputSource resolveEntity(String name, String publicId, String baseURI, String systemId) throws SAXException, IOException {
         InputSource source = null;
         if (parent != null) {
+            long start = System.nanoTime();
             source = ((EntityResolver2) parent).resolveEntity(name, publicId, baseURI, systemId);
-        }
-
-        String display = "";
-        if (name != null) {
-            display += name + ": ";
-        }
-        if (baseURI == null) {
-            if (systemId != null) {
-                display += systemId;
-            }
-        } else {
-            display += URI.create(baseURI).resolve(systemId).toString();
-        }
-        if (publicId != null) {
-            display += " (" + publicId + ")";
-        }
-
-        if (source instanceof ResolverInputSource) {
-            System.out.println("✓ Resolved: " + display);
-            System.out.println("        as: " + source.getSystemId());
-            System.out.println("      from: " + ((ResolverInputSource) source).resolvedURI);
-        } else {
-            System.out.println("✗ Resolved: " + display);
+            record("resolveEntity", start, baseURI, systemId, source);
+        }
+
+        if (log.isEnabled()) {
+            boolean resolved = source instanceof ResolverInputSource;
+            log.log(new ResolutionLog.Event("resolveEntity",
+                    resolved ? source.getSystemId() : null,
+                    resolved ? ((ResolverInputSource) source).resolvedURI : null,
+                    () -> {
+                        String display = "";
+                        if (name != null) {
+                            display += name + ": ";
+                        }
+                        if (baseURI == null) {
+                            if (systemId != null) {
+                                display += systemId;
+                            }
+                        } else {
+                            display += URI.create(baseURI).resolve(systemId).toString();
+                        }
+                        if (publicId != null) {
+                            display += " (" + publicId + ")";
+                        }
+                        return display;
+                    },
+                    "name", name, "publicId", publicId, "baseURI", baseURI, "systemId", systemId));
         }
         return source;
     }
@@ -120,23 +163,27 @@ public class ChattyResolver implements EntityResolver2, URIResolver, LSResourceR
     public Source resolve(String href, String base) throws TransformerException {
         Source source = null;
         if (parent != null) {
+            long start = System.nanoTime();
             source = ((URIResolver) parent).resolve(href, base);
-        }
-
-        String display = "";
-        if (href != null) {
-            display += href;
-        }
-        if (base != null) {
-            display += " (" + base + ")";
-        }
-
-        if (source instanceof ResolverSAXSource) {
-            System.out.println("✓ Resolved: " + display);
-            System.out.println("        as: " + source.getSystemId());
-            System.out.println("      from: " + ((ResolverSAXSource) source).resolvedURI);
-        } else {
-            System.out.println("✗ Resolved: " + display);
+            record("resolve", start, base, href, source);
+        }
+
+        if (log.isEnabled()) {
+            boolean resolved = source instanceof ResolverSAXSource;
+            log.log(new ResolutionLog.Event("resolve",
+                    resolved ? source.getSystemId() : null,
+                    resolved ? ((ResolverSAXSource) source).resolvedURI : null,
+                    () -> {
+                        String display = "";
+                        if (href != null) {
+                            display += href;
+                        }
+                        if (base != null) {
+                            display += " (" + base + ")";
+                        }
+                        return display;
+                    },
+                    "href", href, "base", base));
         }
         return source;
     }
@@ -145,33 +192,38 @@ public class ChattyResolver implements EntityResolver2, URIResolver, LSResourceR
     public LSInput resolveResource(String type, String namespaceURI, String publicId, String systemId, String baseURI) {
         LSInput source = null;
         if (parent != null) {
+            long start = System.nanoTime();
             source = ((LSResourceResolver) parent).resolveResource(type, namespaceURI, publicId, systemId, baseURI);
-        }
-
-        String display = "";
-        if (type != null) {
-            display += type + ": ";
-        }
-        if (baseURI == null) {
-            if (systemId != null) {
-                display += systemId;
-            }
-        } else {
-            display += URI.create(baseURI).resolve(systemId).toString();
-        }
-        if (namespaceURI != null) {
-            display += " (" + namespaceURI + ")";
-        }
-        if (publicId != null) {
-            display += " (" + publicId + ")";
-        }
-
-        if (source instanceof ResolverLSInput) {
-            System.out.println("✓ Resolved: " + display);
-            System.out.println("        as: " + source.getSystemId());
-            System.out.println("      from: " + ((ResolverLSInput) source).resolvedURI);
-        } else {
-            System.out.println("✗ Resolved: " + display);
+            record("resolveResource", start, baseURI, systemId, source);
+        }
+
+        if (log.isEnabled()) {
+            boolean resolved = source instanceof ResolverLSInput;
+            log.log(new ResolutionLog.Event("resolveResource",
+                    resolved ? source.getSystemId() : null,
+                    resolved ? ((ResolverLSInput) source).resolvedURI : null,
+                    () -> {
+                        String display = "";
+                        if (type != null) {
+                            display += type + ": ";
+                        }
+                        if (baseURI == null) {
+                            if (systemId != null) {
+                                display += systemId;
+                            }
+                        } else {
+                            display += URI.create(baseURI).resolve(systemId).toString();
+                        }
+                        if (namespaceURI != null) {
+                            display += " (" + namespaceURI + ")";
+                        }
+                        if (publicId != null) {
+                            display += " (" + publicId + ")";
+                        }
+                        return display;
+                    },
+                    "type", type, "namespaceURI", namespaceURI, "publicId", publicId,
+                    "systemId", systemId, "baseURI", baseURI));
         }
         return source;
     }
@@ -0,0 +1,217 @@
+package org.xmlresolver.example;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/** Find the catalogs on the classpath, remembering what was found.
+ *
+ * <p>Searching the classpath for catalogs means looking in every jar on it. The
+ * classpath doesn't change from one run to the next very often, so the catalogs
+ * found are saved in a manifest along with the classpath and the path, size, and
+ * modification time of every entry on it (including the jars named in a jar's
+ * <code>Class-Path</code>). If the classpath is the same and none of the entries
+ * have changed, the next run uses the list from the manifest instead of searching
+ * again. Checking that only takes a look at each file; the jars are only opened
+ * (to find the ones their manifests name) when something has changed.</p>
+ *
+ * <p>The manifest is a text file. The <code>classpath</code> line is the classpath,
+ * lines that begin <code>entry</code> describe its entries, and lines that begin
+ * <code>catalog</code> list the catalogs found. By default, it's kept in
+ * <code>~/.sampleapp</code>, in a file named for the classpath.</p>
+ */
+
+class ClasspathCatalogs {
+    private static final String CATALOG = "org/xmlresolver/catalog.xml";
+    private static final String HEADER = "# SampleApp classpath catalogs";
+
+    private final Path manifest;
+    private final PrintStream messages;
+
+    /** The default manifest for this JVM's classpath. */
+    public static Path defaultManifest() {
+        String classPath = System.getProperty("java.class.path");
+        return Paths.get(System.getProperty("user.home"), ".sampleapp",
+                "classpath-" + Integer.toHexString(classPath.hashCode()) + ".catalogs");
+    }
+
+    /** Use a manifest.
+     *
+     * @param manifest The manifest file (it needn't exist yet)
+     * @param messages Where to report problems writing the manifest
+     */
+    public ClasspathCatalogs(Path manifest, PrintStream messages) {
+        this.manifest = manifest;
+        this.messages = messages;
+    }
+
+    /** The catalogs on the classpath.
+     *
+     * @param rescan Search the classpath even if the manifest is current
+     * @return The catalog URIs, in classpath order
+     */
+    public List<String> find(boolean rescan) {
+        String classPath = System.getProperty("java.class.path");
+        if (!rescan) {
+            List<String> catalogs = read(classPath);
+            if (catalogs != null) {
+                return catalogs;
+            }
+        }
+
+        List<String> fingerprint = fingerprint(classPath);
+        List<String> catalogs = scan();
+        write(classPath, fingerprint, catalogs);
+        return catalogs;
+    }
+
+    private List<String> scan() {
+        List<String> catalogs = new ArrayList<>();
+        try {
+            Enumeration<URL> found = ClassLoader.getSystemClassLoader().getResources(CATALOG);
+            while (found.hasMoreElements()) {
+                catalogs.add(found.nextElement().toString());
+            }
+        } catch (IOException ex) {
+            messages.println("Failed to search the classpath for catalogs: " + ex.getMessage());
+        }
+        return catalogs;
+    }
+
+    private List<String> read(String classPath) {
+        if (!Files.exists(manifest)) {
+            return null;
+        }
+
+        String recorded = null;
+        List<String> entries = new ArrayList<>();
+        List<String> catalogs = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (!HEADER.equals(line)) {
+                return null;
+            }
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("classpath ")) {
+                    recorded = line.substring(10);
+                } else if (line.startsWith("entry ")) {
+                    entries.add(line.substring(6));
+                } else if (line.startsWith("catalog ")) {
+                    catalogs.add(line.substring(8));
+                }
+            }
+        } catch (IOException ex) {
+            // An unreadable manifest is just a manifest we can't use
+            return null;
+        }
+
+        if (!classPath.equals(recorded)) {
+            return null;
+        }
+        for (String entry : entries) {
+            // size, time, path; the path may contain spaces
+            String[] parts = entry.split(" ", 3);
+            if (parts.length != 3 || !entry.equals(stamp(Paths.get(parts[2])))) {
+                return null;
+            }
+        }
+        return catalogs;
+    }
+
+    private void write(String classPath, List<String> fingerprint, List<String> catalogs) {
+        try {
+            Path parent = manifest.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            // Write a temporary file and move it into place so that a concurrent run
+            // never reads half a manifest
+            Path temp = Files.createTempFile(parent, "classpath", ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                writer.write(HEADER);
+                writer.newLine();
+                writer.write("classpath " + classPath);
+                writer.newLine();
+                for (String entry : fingerprint) {
+                    writer.write("entry " + entry);
+                    writer.newLine();
+                }
+                for (String catalog : catalogs) {
+                    writer.write("catalog " + catalog);
+                    writer.newLine();
+                }
+            }
+            Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ex) {
+            messages.println("Failed to write classpath catalog manifest " + manifest + ": " + ex.getMessage());
+        }
+    }
+
+    /** Describe the classpath.
+     *
+     * <p>That's every entry on <code>java.class.path</code> and every jar named in the
+     * <code>Class-Path</code> of a jar's manifest (which is how the distribution jar
+     * finds its libraries). Directories don't get modified when a file deep inside them
+     * changes, so for a directory, it's the catalog in it (if there is one) that counts.</p>
+     *
+     * @param classPath The classpath
+     * @return One line for each entry
+     */
+    private static List<String> fingerprint(String classPath) {
+        Set<Path> entries = new LinkedHashSet<>();
+        for (String entry : classPath.split(File.pathSeparator)) {
+            if (!entry.isEmpty()) {
+                addEntry(entries, Paths.get(entry).toAbsolutePath().normalize());
+            }
+        }
+
+        List<String> fingerprint = new ArrayList<>();
+        for (Path entry : entries) {
+            Path stamped = entry;
+            if (Files.isDirectory(entry)) {
+                stamped = entry.resolve(CATALOG);
+            }
+            fingerprint.add(stamp(stamped));
+        }
+        return fingerprint;
+    }
+
+    private static String stamp(Path path) {
+        File file = path.toFile();
+        return file.length() + " " + file.lastModified() + " " + path;
+    }
+
+    private static void addEntry(Set<Path> entries, Path entry) {
+        if (!entries.add(entry) || !Files.isRegularFile(entry)) {
+            return;
+        }
+
+        try (JarFile jar = new JarFile(entry.toFile())) {
+            Manifest mf = jar.getManifest();
+            String classPath = mf == null ? null : mf.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+            if (classPath != null) {
+                for (String dependency : classPath.trim().split("\\s+")) {
+                    if (!dependency.isEmpty()) {
+                        addEntry(entries, entry.resolveSibling(dependency).normalize());
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            // Not a jar, or not one we can read; its size and time still count
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package org.xmlresolver.example;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/** Watch a parse's documents and the files it depends on.
+ *
+ * <p>The directories of the documents, of the schemas named on the command line, and of
+ * the catalogs are watched, and so are the directories the catalogs' entries point into,
+ * since that's where the modules of the schemas are. Only the directories themselves
+ * are watched, not the trees under them. A change is sorted into one of three
+ * kinds: one of the documents changed, a catalog changed, or a schema changed. A schema
+ * is any of the files named on the command line, or any DTD, DTD module, RELAX NG,
+ * XML Schema, or XSLT file in a watched directory.</p>
+ *
+ * <p>Editors often save a file in several steps (write a temporary file, rename it,
+ * touch it again), so after the first event, {@link #next()} keeps collecting events
+ * until none have arrived for a little while and reports them together.</p>
+ */
+
+class DocumentWatcher implements Closeable {
+    private static final long SETTLE_MILLIS = 100;
+    private static final Pattern SCHEMA = Pattern.compile(".*\\.(dtd|ent|mod|rng|rnc|xsd|xsl|xslt)$", Pattern.CASE_INSENSITIVE);
+
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Set<Path> documents;
+    private final Set<Path> schemas;
+    private final Set<Path> catalogs;
+
+    /** Start watching.
+     *
+     * @param documents The documents
+     * @param schemas The schemas, stylesheets, and grammars named on the command line
+     * @param catalogs The catalog files
+     * @param targets The directories the catalogs point into; any that don't exist are skipped
+     * @throws IOException if the files can't be watched
+     */
+    public DocumentWatcher(List<Path> documents, List<Path> schemas, List<Path> catalogs, List<Path> targets) throws IOException {
+        this.documents = normalize(documents);
+        this.schemas = normalize(schemas);
+        this.catalogs = normalize(catalogs);
+        watcher = FileSystems.getDefault().newWatchService();
+
+        for (Path path : this.documents) {
+            register(path.getParent());
+        }
+        for (Path path : this.schemas) {
+            register(path.getParent());
+        }
+        for (Path path : this.catalogs) {
+            register(path.getParent());
+        }
+        for (Path path : normalize(targets)) {
+            if (Files.isDirectory(path)) {
+                register(path);
+            }
+        }
+    }
+
+    /** How many directories are being watched. */
+    public int getDirectories() {
+        return directories.size();
+    }
+
+    /** Wait for something to change.
+     *
+     * @return What changed
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public Change next() throws InterruptedException {
+        Change change = new Change();
+        WatchKey key = watcher.take();
+        while (key != null) {
+            Path directory = directories.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    // Events were lost; assume the worst
+                    change.schemas = true;
+                    change.documents.addAll(documents);
+                } else if (directory != null) {
+                    sort(change, directory.resolve((Path) event.context()));
+                }
+            }
+            key.reset();
+            key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return change;
+    }
+
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+    }
+
+    private void sort(Change change, Path path) {
+        if (documents.contains(path)) {
+            change.documents.add(path);
+        } else if (catalogs.contains(path)) {
+            change.catalogs = true;
+        } else if (schemas.contains(path) || SCHEMA.matcher(path.getFileName().toString()).matches()) {
+            change.schemas = true;
+        } else {
+            return;
+        }
+
+        try {
+            change.edited = Math.max(change.edited, Files.getLastModifiedTime(path).toMillis());
+        } catch (IOException ex) {
+            // Deleted (perhaps on its way to being replaced); the event time will do
+            change.edited = Math.max(change.edited, System.currentTimeMillis());
+        }
+    }
+
+    private void register(Path directory) throws IOException {
+        if (directory != null && !directories.containsValue(directory)) {
+            WatchKey key = directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            directories.put(key, directory);
+        }
+    }
+
+    private static Set<Path> normalize(List<Path> paths) {
+        Set<Path> normalized = new LinkedHashSet<>();
+        for (Path path : paths) {
+            normalized.add(path.toAbsolutePath().normalize());
+        }
+        return normalized;
+    }
+
+    /** What changed. */
+    public static class Change {
+        private final Set<Path> documents = new LinkedHashSet<>();
+        private boolean schemas = false;
+        private boolean catalogs = false;
+        private long edited = 0;
+
+        /** The documents that changed (absolute, normalized paths). */
+        public List<Path> getDocuments() {
+            return new ArrayList<>(documents);
+        }
+
+        /** Did a schema change? */
+        public boolean getSchemas() {
+            return schemas;
+        }
+
+        /** Did a catalog change? */
+        public boolean getCatalogs() {
+            return catalogs;
+        }
+
+        /** When the most recent of the changed files was modified, in milliseconds since the epoch. */
+        public long getEdited() {
+            return edited;
+        }
+    }
+}
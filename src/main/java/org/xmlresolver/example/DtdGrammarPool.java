@@ -0,0 +1,253 @@
+package org.xmlresolver.example;
+
+import org.apache.xerces.parsers.SAXParser;
+import org.apache.xerces.util.SymbolTable;
+import org.apache.xerces.util.SynchronizedSymbolTable;
+import org.apache.xerces.xni.grammars.Grammar;
+import org.apache.xerces.xni.grammars.XMLGrammarDescription;
+import org.apache.xerces.xni.grammars.XMLGrammarPool;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xmlresolver.CatalogManager;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A pool of compiled DTDs.
+ *
+ * <p>A validating parse reads and compiles the whole DTD, every module of it, for
+ * each document. For a DTD like JATS, that's most of the work. This pool keeps the
+ * compiled DTDs so that Xerces can reuse them: a document whose DTD is in the pool
+ * only costs as much as the parse of the document itself.</p>
+ *
+ * <p>DTDs are identified by their public identifier and the URI that the catalogs
+ * resolve their system identifier to. If that's a local file, its modification time
+ * is part of the key too, so an edited DTD is compiled again. (The modules it
+ * includes are not checked.)</p>
+ *
+ * <p>A document with an internal subset isn't parsed with the pool. Xerces adds the
+ * internal subset's declarations to the same grammar as the external subset, so the
+ * document would either get a grammar with another document's declarations in it, or
+ * put its own into the grammar everyone else gets.</p>
+ *
+ * <p>The Xerces classes are used directly, by name. The build leaves xercesImpl's
+ * <code>META-INF/services</code> entries out of the copy the application uses, so it
+ * never becomes the JAXP parser or schema factory for anything else.</p>
+ */
+
+class DtdGrammarPool {
+    private static final String VALIDATION = "http://xml.org/sax/features/validation";
+    private static final String NAMESPACES = "http://xml.org/sax/features/namespaces";
+
+    private final ConcurrentHashMap<String, Grammar> grammars = new ConcurrentHashMap<>();
+    // Xerces compares names by identity, so every parser that shares the grammars must share the symbols
+    private final SymbolTable symbols = new SynchronizedSymbolTable(new SymbolTable(2039));
+    private final LongAdder reused = new LongAdder();
+    private final LongAdder compiled = new LongAdder();
+    private final LongAdder unpooled = new LongAdder();
+
+    /** Create a validating parser for a document.
+     *
+     * <p>The parser uses the pool unless the document has an internal subset.</p>
+     *
+     * @param manager The catalog manager used to resolve DTDs, or null if there isn't one
+     * @param document The document the parser is for
+     * @return The parser
+     * @throws SAXException if the parser can't be configured
+     */
+    public XMLReader newReader(CatalogManager manager, URI document) throws SAXException {
+        XMLReader reader;
+        if (hasInternalSubset(document)) {
+            unpooled.increment();
+            reader = new SAXParser();
+        } else {
+            reader = new SAXParser(symbols, new View(manager));
+        }
+        reader.setFeature(NAMESPACES, true);
+        reader.setFeature(VALIDATION, true);
+        return reader;
+    }
+
+    public long getReused() {
+        return reused.sum();
+    }
+
+    public long getCompiled() {
+        return compiled.sum();
+    }
+
+    public long getUnpooled() {
+        return unpooled.sum();
+    }
+
+    public int size() {
+        return grammars.size();
+    }
+
+    /** Forget every compiled DTD, for example, because one of its modules has changed. */
+    public void clear() {
+        grammars.clear();
+    }
+
+    /** A one line summary of how the pool was used. */
+    public String summary() {
+        String summary = "DTD grammar pool: " + getReused() + " reused, " + getCompiled() + " compiled, " + size() + " grammars";
+        if (getUnpooled() > 0) {
+            summary += "; " + getUnpooled() + " documents with an internal subset not pooled";
+        }
+        return summary;
+    }
+
+    /** Does the document's doctype declaration have an internal subset?
+     *
+     * <p>This reads only as far as the doctype declaration or the first start tag. The
+     * bytes are read as if they were ASCII, which is good enough to find the markup in
+     * the prolog of any ASCII-compatible encoding; NULs are skipped for UTF-16. If the
+     * document can't be read, it's treated as if it had one, and the parse will report
+     * the problem.</p>
+     */
+    static boolean hasInternalSubset(URI document) {
+        try (InputStream stream = new BufferedInputStream(ResourceStore.openStream(document))) {
+            int ch = next(stream);
+            while (ch >= 0) {
+                if (ch != '<') {
+                    ch = next(stream);
+                    continue;
+                }
+                ch = next(stream);
+                if (ch == '?') {
+                    skipPast(stream, "?>");
+                } else if (ch == '!') {
+                    ch = next(stream);
+                    if (ch == '-') {
+                        skipPast(stream, "-->");
+                    } else if (ch == 'D') {
+                        // The doctype declaration: an internal subset is a "[" outside quotes
+                        int quote = 0;
+                        while ((ch = next(stream)) >= 0) {
+                            if (quote != 0) {
+                                if (ch == quote) {
+                                    quote = 0;
+                                }
+                            } else if (ch == '"' || ch == '\'') {
+                                quote = ch;
+                            } else if (ch == '[') {
+                                return true;
+                            } else if (ch == '>') {
+                                return false;
+                            }
+                        }
+                        return false;
+                    } else {
+                        return false;
+                    }
+                } else {
+                    // The document element, so there's no doctype declaration
+                    return false;
+                }
+                ch = next(stream);
+            }
+            return false;
+        } catch (IOException | IllegalArgumentException ex) {
+            return true;
+        }
+    }
+
+    private static int next(InputStream stream) throws IOException {
+        int ch = stream.read();
+        while (ch == 0) {
+            ch = stream.read();
+        }
+        return ch;
+    }
+
+    private static void skipPast(InputStream stream, String end) throws IOException {
+        int matched = 0;
+        int ch;
+        while (matched < end.length() && (ch = next(stream)) >= 0) {
+            if (ch == end.charAt(matched)) {
+                matched++;
+            } else {
+                matched = ch == end.charAt(0) ? 1 : 0;
+            }
+        }
+    }
+
+    private static String key(XMLGrammarDescription desc, CatalogManager manager) {
+        String systemId = desc.getExpandedSystemId();
+        String publicId = desc.getPublicId();
+        URI resolved = manager == null ? null : manager.lookupEntity(null, systemId, publicId);
+        String location = resolved == null ? systemId : resolved.toString();
+        StringBuilder sb = new StringBuilder();
+        sb.append(publicId == null ? "" : publicId).append('|').append(location == null ? "" : location);
+        if (resolved != null && "file".equals(resolved.getScheme())) {
+            sb.append('|').append(new File(resolved).lastModified());
+        }
+        return sb.toString();
+    }
+
+    /** The pool as one parser sees it, resolving with that parser's catalogs. */
+    private class View implements XMLGrammarPool {
+        private final CatalogManager manager;
+
+        View(CatalogManager manager) {
+            this.manager = manager;
+        }
+
+        @Override
+        public Grammar[] retrieveInitialGrammarSet(String grammarType) {
+            return new Grammar[0];
+        }
+
+        @Override
+        public void cacheGrammars(String grammarType, Grammar[] newGrammars) {
+            if (!XMLGrammarDescription.XML_DTD.equals(grammarType)) {
+                return;
+            }
+            for (Grammar grammar : newGrammars) {
+                XMLGrammarDescription desc = grammar.getGrammarDescription();
+                if (desc.getExpandedSystemId() == null && desc.getPublicId() == null) {
+                    // Only an internal subset; there's nothing to key it on
+                    continue;
+                }
+                // If two parsers compiled the same DTD at once, keep (and count) the first one
+                if (grammars.putIfAbsent(key(desc, manager), grammar) == null) {
+                    compiled.increment();
+                }
+            }
+        }
+
+        @Override
+        public Grammar retrieveGrammar(XMLGrammarDescription desc) {
+            if (!XMLGrammarDescription.XML_DTD.equals(desc.getGrammarType())
+                    || (desc.getExpandedSystemId() == null && desc.getPublicId() == null)) {
+                return null;
+            }
+            Grammar grammar = grammars.get(key(desc, manager));
+            if (grammar != null) {
+                reused.increment();
+            }
+            return grammar;
+        }
+
+        @Override
+        public void lockPool() {
+            // The map is concurrent; there's nothing to lock
+        }
+
+        @Override
+        public void unlockPool() {
+            // nop
+        }
+
+        @Override
+        public void clear() {
+            grammars.clear();
+        }
+    }
+}
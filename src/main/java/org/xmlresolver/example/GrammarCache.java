@@ -0,0 +1,274 @@
+package org.xmlresolver.example;
+
+import org.xml.sax.InputSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+
+/** A cache of compiled grammars.
+ *
+ * <p>Compiling a grammar (the DocBook RELAX NG grammar, for example, or a large set of XML
+ * Schema documents) usually costs far more than validating a document with it. This cache
+ * holds compiled grammars so that they can be reused for every document in a run.</p>
+ *
+ * <p>Grammars are identified by the URIs of the schema documents <em>and</em> a stamp
+ * for each one (see {@link #stamp(String)}), so an edited schema is compiled again. Only
+ * the top-level schema documents are stamped; modules that they include or import are
+ * not. The least recently used grammar is discarded when the cache is full.</p>
+ */
+
+class GrammarCache {
+    private final int capacity;
+    private final LinkedHashMap<String, FutureTask<Object>> grammars;
+    private final Map<String, String> stamps = new HashMap<>();
+    private long hits = 0;
+    private long misses = 0;
+
+    public GrammarCache(int capacity) {
+        this.capacity = capacity;
+        grammars = new LinkedHashMap<String, FutureTask<Object>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, FutureTask<Object>> eldest) {
+                return size() > GrammarCache.this.capacity;
+            }
+        };
+    }
+
+    /** Compute the cache key for a grammar.
+     *
+     * @param kind The kind of grammar ("rng", "xsd", etc.)
+     * @param uris The URIs of the schema documents
+     * @param stamps The {@link Stamp#getValue() stamp} of each of the schema documents
+     * @return The key
+     */
+    public static String key(String kind, List<String> uris, List<String> stamps) {
+        StringBuilder sb = new StringBuilder(kind);
+        for (int pos = 0; pos < uris.size(); pos++) {
+            sb.append('|').append(uris.get(pos)).append('#').append(stamps.get(pos));
+        }
+        return sb.toString();
+    }
+
+    /** Get a grammar from the cache, compiling it if necessary.
+     *
+     * <p>If several threads ask for the same grammar at the same time, it is only
+     * compiled once; the other threads wait for it. If compilation fails, the exception
+     * is thrown to each of the waiting threads and nothing is cached.</p>
+     *
+     * @param key The cache key
+     * @param compiler The function that compiles the grammar
+     * @param <T> The type of the compiled grammar
+     * @return The compiled grammar
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, Supplier<T> compiler) {
+        FutureTask<Object> task;
+        boolean compile = false;
+        synchronized (this) {
+            task = grammars.get(key);
+            if (task == null) {
+                task = new FutureTask<>(compiler::get);
+                grammars.put(key, task);
+                compile = true;
+                misses++;
+            } else {
+                hits++;
+            }
+        }
+
+        if (compile) {
+            task.run();
+        }
+
+        try {
+            return (T) task.get();
+        } catch (ExecutionException ex) {
+            synchronized (this) {
+                grammars.remove(key, task);
+            }
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw new IllegalStateException(ex.getCause());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for grammar: " + key);
+        }
+    }
+
+    /** Something that changes when the schema document changes, without reading it.
+     *
+     * @param location Where the schema document is actually read from
+     * @return The stamp
+     * @throws IOException if the file can't be examined or the resource can't be read
+     * @see #stamp(String, InputStream)
+     */
+    public Stamp stamp(String location) throws IOException {
+        return stamp(location, null);
+    }
+
+    /** Something that changes when the schema document changes, without reading it if possible.
+     *
+     * <p>For a local file, that's its size and modification time, and for an entry in a
+     * local jar file, the jar's size and modification time. Anything else (an
+     * <code>http:</code> URI, say) has to be read and hashed; the content is kept in the
+     * stamp, so that compiling the grammar doesn't fetch it again. If the caller already
+     * has the document open (the resolver opened it, say), that stream is read instead of
+     * opening another one. Either way, the stamp is worked out the first time it's asked
+     * for and remembered until {@link #forgetStamps()}, so a batch looks at each schema
+     * once, not once per document.</p>
+     *
+     * @param location Where the schema document is actually read from
+     * @param opened The document, if it's already open, or null; it's closed either way
+     * @return The stamp
+     * @throws IOException if the file can't be examined or the resource can't be read
+     */
+    public Stamp stamp(String location, InputStream opened) throws IOException {
+        try (InputStream stream = opened) {
+            synchronized (stamps) {
+                String stamp = stamps.get(location);
+                if (stamp != null) {
+                    return new Stamp(stamp, null);
+                }
+            }
+
+            byte[] content = null;
+            String stamp = null;
+            Path path = localFile(location);
+            if (path != null) {
+                BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                stamp = attrs.size() + "@" + attrs.lastModifiedTime().toMillis();
+            } else {
+                if (stream == null) {
+                    content = read(location);
+                } else {
+                    InputSource source = new InputSource(location);
+                    source.setByteStream(stream);
+                    content = SchemaSniffer.read(source);
+                }
+                stamp = digest(content);
+            }
+            synchronized (stamps) {
+                stamps.put(location, stamp);
+            }
+            return new Stamp(stamp, content);
+        }
+    }
+
+    /** The local file that changes when this resource does: the file itself, or the jar it's in. */
+    private static Path localFile(String location) {
+        String file = location;
+        if (location.startsWith("jar:file:") && location.contains("!/")) {
+            file = location.substring(4, location.indexOf("!/"));
+        }
+        if (!file.startsWith("file:")) {
+            return null;
+        }
+        try {
+            return Paths.get(URI.create(file));
+        } catch (IllegalArgumentException ex) {
+            // Not a local path after all (file://host/…)
+            return null;
+        }
+    }
+
+    /** Forget the stamps of the schema documents, so that they're looked at again.
+     *
+     * <p>Call this at the start of each run; a daemon would otherwise never notice that
+     * a schema had changed.</p>
+     */
+    public void forgetStamps() {
+        synchronized (stamps) {
+            stamps.clear();
+        }
+    }
+
+    /** Read a schema document.
+     *
+     * @param location Where to read it from; this understands <code>classpath:</code> URIs
+     * @return Its content
+     * @throws IOException if it can't be read
+     */
+    public static byte[] read(String location) throws IOException {
+        try (InputStream stream = ResourceStore.openStream(URI.create(location))) {
+            InputSource source = new InputSource(location);
+            source.setByteStream(stream);
+            return SchemaSniffer.read(source);
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return grammars.size();
+    }
+
+    /** Forget every grammar, so that each one is compiled again the next time it's used.
+     *
+     * <p>Use this when a schema module (which isn't part of the key) has changed.</p>
+     */
+    public synchronized void clear() {
+        grammars.clear();
+        forgetStamps();
+    }
+
+    /** A schema document's stamp, and its content if that had to be read to work it out. */
+    static class Stamp {
+        private final String value;
+        private final byte[] content;
+
+        Stamp(String value, byte[] content) {
+            this.value = value;
+            this.content = content;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        /** The schema document, as read for the stamp or, if it wasn't, read now.
+         *
+         * @param location Where the schema document is actually read from
+         * @return Its content
+         * @throws IOException if it can't be read
+         */
+        public byte[] read(String location) throws IOException {
+            return content == null ? GrammarCache.read(location) : content;
+        }
+    }
+
+    private static String digest(byte[] content) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest(content)) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(ex);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package org.xmlresolver.example;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Just enough JSON.
+ *
+ * <p>The application reads and writes JSON Lines, but only ever simple objects whose
+ * values are strings (or null). That doesn't justify another dependency, so this class
+ * parses flat objects and quotes strings. Numbers and booleans are returned as their
+ * lexical form; nested objects and arrays are not supported.</p>
+ */
+
+class Json {
+    private final String text;
+    private int pos = 0;
+
+    private Json(String text) {
+        this.text = text;
+    }
+
+    /** Parse a flat JSON object.
+     *
+     * @param text The JSON text
+     * @return The properties of the object, in order; JSON null values are Java nulls
+     * @throws IllegalArgumentException if the text isn't a flat JSON object
+     */
+    public static Map<String, String> parseObject(String text) {
+        Json json = new Json(text);
+        Map<String, String> map = new LinkedHashMap<>();
+        json.expect('{');
+        if (json.peek() == '}') {
+            json.pos++;
+        } else {
+            do {
+                String key = json.string();
+                json.expect(':');
+                map.put(key, json.value());
+            } while (json.next(',', '}') == ',');
+        }
+        if (json.peek() != 0) {
+            throw json.error("unexpected content after object");
+        }
+        return map;
+    }
+
+    /** Quote a string for JSON.
+     *
+     * @param value The string
+     * @return The JSON representation of the string, or <code>null</code> if it is null
+     */
+    public static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 2);
+        sb.append('"');
+        for (int pos = 0; pos < value.length(); pos++) {
+            char ch = value.charAt(pos);
+            switch (ch) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (ch < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) ch));
+                    } else {
+                        sb.append(ch);
+                    }
+            }
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+
+    private char peek() {
+        while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+        return pos < text.length() ? text.charAt(pos) : 0;
+    }
+
+    private void expect(char ch) {
+        if (peek() != ch) {
+            throw error("expected '" + ch + "'");
+        }
+        pos++;
+    }
+
+    private char next(char first, char second) {
+        char ch = peek();
+        if (ch != first && ch != second) {
+            throw error("expected '" + first + "' or '" + second + "'");
+        }
+        pos++;
+        return ch;
+    }
+
+    private String value() {
+        char ch = peek();
+        if (ch == '"') {
+            return string();
+        }
+        if (ch == '{' || ch == '[') {
+            throw error("nested objects and arrays are not supported");
+        }
+        int start = pos;
+        while (pos < text.length() && ",}".indexOf(text.charAt(pos)) < 0 && !Character.isWhitespace(text.charAt(pos))) {
+            pos++;
+        }
+        String literal = text.substring(start, pos);
+        if (literal.isEmpty()) {
+            throw error("expected a value");
+        }
+        return "null".equals(literal) ? null : literal;
+    }
+
+    private String string() {
+        expect('"');
+        StringBuilder sb = new StringBuilder();
+        while (pos < text.length()) {
+            char ch = text.charAt(pos++);
+            if (ch == '"') {
+                return sb.toString();
+            }
+            if (ch == '\\') {
+                if (pos >= text.length()) {
+                    break;
+                }
+                ch = text.charAt(pos++);
+                switch (ch) {
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        if (pos + 4 > text.length()) {
+                            throw error("truncated \\u escape");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException ex) {
+                            throw error("invalid \\u escape");
+                        }
+                        pos += 4;
+                        break;
+                    default:
+                        sb.append(ch);
+                }
+            } else {
+                sb.append(ch);
+            }
+        }
+        throw error("unterminated string");
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Invalid JSON at offset " + pos + ": " + message);
+    }
+}
@@ -0,0 +1,327 @@
+package org.xmlresolver.example;
+
+import org.xmlresolver.CatalogManager;
+import org.xmlresolver.catalog.entry.Entry;
+import org.xmlresolver.catalog.entry.EntryCatalog;
+import org.xmlresolver.catalog.entry.EntryDelegatePublic;
+import org.xmlresolver.catalog.entry.EntryPublic;
+
+import java.io.PrintStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/** Walk the catalogs the way a lookup does, recording each step.
+ *
+ * <p>The catalog manager only gives an answer, not the reasons for it. This follows
+ * the XML Catalogs resolution rules itself, using the catalogs the manager loaded.
+ * In each catalog, a system identifier is looked for first: an exact match wins, then
+ * the longest rewrite prefix, then the longest suffix, then delegation (if there are
+ * matching <code>delegateSystem</code> entries). Only then is the public identifier
+ * looked for, in the <code>public</code> and then the <code>delegatePublic</code> entries,
+ * skipping any that prefer system identifiers if there's a system identifier. URIs are
+ * looked for the same way as system identifiers. If nothing matches, the
+ * <code>nextCatalog</code> entries come next, before the next catalog in the list. For
+ * every catalog, it records how it got there, how many entries it looked at, what
+ * matched, and how long loading and searching took.</p>
+ *
+ * <p>If a URI lookup finds nothing and the resolver's <code>URI_FOR_SYSTEM</code> feature
+ * is on (it is by default), the manager looks the URI up as a system identifier too,
+ * and so does this.</p>
+ *
+ * <p>Only system, public, entity, and URI lookups can be explained. The manager also
+ * normalizes identifiers; the caller should compare the answer here with the
+ * manager's.</p>
+ */
+
+class LookupExplainer {
+    private final CatalogManager manager;
+    private final boolean uriForSystem;
+    private final List<Step> steps = new ArrayList<>();
+    private final Set<URI> visited = new HashSet<>();
+
+    /** Explain lookups.
+     *
+     * @param manager The catalog manager
+     * @param uriForSystem Is the resolver's <code>URI_FOR_SYSTEM</code> feature on?
+     */
+    public LookupExplainer(CatalogManager manager, boolean uriForSystem) {
+        this.manager = manager;
+        this.uriForSystem = uriForSystem;
+    }
+
+    /** Can this style of lookup be explained? */
+    public static boolean explains(String style) {
+        return "system".equals(style) || "public".equals(style) || "entity".equals(style) || "uri".equals(style);
+    }
+
+    /** Perform a lookup.
+     *
+     * @param catalogs The catalogs, in order
+     * @param style The lookup style (see {@link #explains(String)})
+     * @param systemId The system identifier, or null
+     * @param publicId The public identifier, or null
+     * @param uri The URI, or null
+     * @return The answer, or null
+     */
+    public URI lookup(List<URI> catalogs, String style, String systemId, String publicId, String uri) {
+        Query query;
+        switch (style) {
+            case "system":
+                query = new Query(systemId, null, null);
+                break;
+            case "public":
+                query = new Query(null, publicId, null);
+                break;
+            case "uri":
+                query = new Query(null, null, uri);
+                break;
+            default:
+                query = new Query(systemId, publicId, null);
+                break;
+        }
+
+        Answer answer = search(catalogs, query, "catalog", 0);
+        if ((answer == null || answer.uri == null) && "uri".equals(style) && uriForSystem) {
+            // The manager tries the URI as a system identifier, starting again from the top
+            steps.add(new Step(null, "No URI entry matched; looking for the URI in the system entries (URI_FOR_SYSTEM)", 0));
+            visited.clear();
+            answer = search(catalogs, new Query(uri, null, null), "catalog", 0);
+        }
+        return answer == null ? null : answer.uri;
+    }
+
+    /** Print the steps.
+     *
+     * @param out Where to print them
+     */
+    public void report(PrintStream out) {
+        int searched = 0;
+        long entries = 0;
+        long examined = 0;
+        long nanos = 0;
+        out.println("Catalogs searched:");
+        for (Step step : steps) {
+            String indent = "  ";
+            for (int depth = 0; depth < step.depth; depth++) {
+                indent += "  ";
+            }
+            if (step.catalog == null) {
+                out.println(indent + step.via);
+                continue;
+            }
+            out.println(indent + ("catalog".equals(step.via) ? "" : step.via + " ") + step.catalog);
+            if (step.repeat) {
+                out.println(indent + "    already searched; skipped");
+                continue;
+            }
+            out.printf("%s    %d entries, %d examined, %s; loaded in %.2fms, searched in %.2fms%n", indent,
+                    step.entries, step.examined, step.matched == null ? "no match" : step.matched,
+                    step.loadNanos / 1e6, step.searchNanos / 1e6);
+            searched++;
+            entries += step.entries;
+            examined += step.examined;
+            nanos += step.loadNanos + step.searchNanos;
+        }
+        out.printf("%d catalogs, %d entries, %d examined, %.2fms%n", searched, entries, examined, nanos / 1e6);
+    }
+
+    private Answer search(List<URI> catalogs, Query query, String via, int depth) {
+        for (URI catalog : catalogs) {
+            Answer answer = search(catalog, query, via, depth);
+            if (answer != null) {
+                return answer;
+            }
+        }
+        return null;
+    }
+
+    /** Search one catalog (and what it chains to).
+     *
+     * @return The answer, or null to go on to the next catalog. After delegation, the answer is
+     * final even if it's a miss, so that's an answer with a null URI.
+     */
+    private Answer search(URI catalog, Query query, String via, int depth) {
+        Step step = new Step(catalog, via, depth);
+        steps.add(step);
+        if (!visited.add(catalog)) {
+            step.repeat = true;
+            return null;
+        }
+
+        long start = System.nanoTime();
+        EntryCatalog loaded = manager.loadCatalog(catalog);
+        step.loadNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        List<Entry> entries = loaded.entries();
+        step.entries = entries.size();
+
+        // Each kind of identifier is looked for, delegation and all, before the next kind.
+        // Delegation replaces the rest of the search, including the catalogs after this one.
+        Answer answer = null;
+        List<URI> delegates = new ArrayList<>();
+        if (query.systemId != null) {
+            answer = match(entries, step, query, query.systemId, Entry.Type.SYSTEM, Entry.Type.REWRITE_SYSTEM, Entry.Type.SYSTEM_SUFFIX);
+            if (answer == null) {
+                delegates = delegates(entries, step, query, query.systemId, Entry.Type.DELEGATE_SYSTEM);
+            }
+        }
+        if (answer == null && delegates.isEmpty() && query.publicId != null) {
+            answer = match(entries, step, query, query.publicId, Entry.Type.PUBLIC, null, null);
+            if (answer == null) {
+                delegates = delegates(entries, step, query, query.publicId, Entry.Type.DELEGATE_PUBLIC);
+            }
+        }
+        if (answer == null && delegates.isEmpty() && query.uri != null) {
+            answer = match(entries, step, query, query.uri, Entry.Type.URI, Entry.Type.REWRITE_URI, Entry.Type.URI_SUFFIX);
+            if (answer == null) {
+                delegates = delegates(entries, step, query, query.uri, Entry.Type.DELEGATE_URI);
+            }
+        }
+        if (answer != null) {
+            step.searchNanos = System.nanoTime() - start;
+            return answer;
+        }
+
+        List<URI> next = new ArrayList<>();
+        if (delegates.isEmpty()) {
+            for (Entry entry : entries) {
+                if (entry.getType() == Entry.Type.NEXT_CATALOG) {
+                    step.examined++;
+                    next.add(CatalogIndex.target(entry));
+                }
+            }
+        } else {
+            step.matched = "delegated to " + delegates.size() + (delegates.size() == 1 ? " catalog" : " catalogs");
+        }
+        step.searchNanos = System.nanoTime() - start;
+
+        if (!delegates.isEmpty()) {
+            Answer delegated = search(delegates, query, "delegate", depth + 1);
+            return delegated == null ? new Answer(null) : delegated;
+        }
+        return search(next, query, "nextCatalog", depth + 1);
+    }
+
+    private Answer match(List<Entry> entries, Step step, Query query, String key, Entry.Type exact, Entry.Type rewrite, Entry.Type suffix) {
+        Entry bestRewrite = null;
+        Entry bestSuffix = null;
+        for (Entry entry : entries) {
+            Entry.Type type = entry.getType();
+            if ((type != exact && type != rewrite && type != suffix) || !applies(entry, query)) {
+                continue;
+            }
+            step.examined++;
+            String entryKey = CatalogIndex.key(entry);
+            if (entryKey == null) {
+                continue;
+            }
+            if (type == exact) {
+                if (key.equals(entryKey)) {
+                    step.matched = "matched " + entry;
+                    return new Answer(CatalogIndex.target(entry));
+                }
+            } else if (type == rewrite) {
+                if (key.startsWith(entryKey) && (bestRewrite == null || entryKey.length() > CatalogIndex.key(bestRewrite).length())) {
+                    bestRewrite = entry;
+                }
+            } else if (key.endsWith(entryKey) && (bestSuffix == null || entryKey.length() > CatalogIndex.key(bestSuffix).length())) {
+                bestSuffix = entry;
+            }
+        }
+
+        if (bestRewrite != null) {
+            step.matched = "matched " + bestRewrite;
+            String prefix = CatalogIndex.key(bestRewrite);
+            return new Answer(URI.create(CatalogIndex.target(bestRewrite) + key.substring(prefix.length())));
+        }
+        if (bestSuffix != null) {
+            step.matched = "matched " + bestSuffix;
+            return new Answer(CatalogIndex.target(bestSuffix));
+        }
+        return null;
+    }
+
+    private List<URI> delegates(List<Entry> entries, Step step, Query query, String key, Entry.Type delegate) {
+        // The matching delegates are searched longest prefix first
+        List<Entry> matches = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.getType() == delegate && applies(entry, query)) {
+                step.examined++;
+                String prefix = CatalogIndex.key(entry);
+                if (prefix != null && key.startsWith(prefix)) {
+                    matches.add(entry);
+                }
+            }
+        }
+        matches.sort((a, b) -> CatalogIndex.key(b).length() - CatalogIndex.key(a).length());
+
+        List<URI> catalogs = new ArrayList<>();
+        for (Entry entry : matches) {
+            URI catalog = CatalogIndex.target(entry);
+            if (!catalogs.contains(catalog)) {
+                catalogs.add(catalog);
+            }
+        }
+        return catalogs;
+    }
+
+    /** Does the <code>prefer</code> setting let this entry match?
+     *
+     * <p>Public entries that prefer system identifiers are ignored if there's a system
+     * identifier.</p>
+     */
+    private static boolean applies(Entry entry, Query query) {
+        if (query.systemId == null) {
+            return true;
+        }
+        if (entry instanceof EntryPublic) {
+            return ((EntryPublic) entry).preferPublic;
+        }
+        if (entry instanceof EntryDelegatePublic) {
+            return ((EntryDelegatePublic) entry).preferPublic;
+        }
+        return true;
+    }
+
+    private static class Query {
+        private final String systemId;
+        private final String publicId;
+        private final String uri;
+
+        Query(String systemId, String publicId, String uri) {
+            this.systemId = systemId;
+            this.publicId = publicId;
+            this.uri = uri;
+        }
+    }
+
+    private static class Answer {
+        private final URI uri;
+
+        Answer(URI uri) {
+            this.uri = uri;
+        }
+    }
+
+    private static class Step {
+        private final URI catalog;
+        private final String via;
+        private final int depth;
+        private boolean repeat = false;
+        private int entries = 0;
+        private int examined = 0;
+        private String matched = null;
+        private long loadNanos = 0;
+        private long searchNanos = 0;
+
+        Step(URI catalog, String via, int depth) {
+            this.catalog = catalog;
+            this.via = via;
+            this.depth = depth;
+        }
+    }
+}
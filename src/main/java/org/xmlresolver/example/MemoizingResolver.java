@@ -0,0 +1,304 @@
+package org.xmlresolver.example;
+
+import org.w3c.dom.ls.LSInput;
+import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.EntityResolver2;
+import org.xmlresolver.Resolver;
+import org.xmlresolver.sources.ResolverInputSource;
+import org.xmlresolver.sources.ResolverLSInput;
+import org.xmlresolver.sources.ResolverSAXSource;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A resolver that remembers its answers.
+ *
+ * <p>The same identifiers are resolved over and over: by every document in a batch,
+ * and by the DTD, schema, and stylesheet stages for each one. This decorator keeps a
+ * bounded, least-recently-used map from each request (the entry point and all of its
+ * arguments) to the answer. Misses are remembered too, so an identifier that isn't in
+ * any catalog only goes through the catalogs once.</p>
+ *
+ * <p>What's remembered is where the resource was found; each hit opens a new
+ * stream, from the {@link ResourceStore} if there is one. Only resources found in local files, jars, and on the
+ * classpath are remembered. Anything the resolver had to fetch is left to the
+ * resolver (and its cache).</p>
+ *
+ * <p>A long-running process (the daemon, or a watch) keeps the memoizer from one run
+ * to the next, so it should call {@link #forgetMisses()} at the start of each run:
+ * a file that wasn't there last time may be there now.</p>
+ */
+
+class MemoizingResolver implements EntityResolver2, URIResolver, LSResourceResolver {
+    // Stands for "the resolver didn't find it"
+    private static final Answer MISS = new Answer(null, null);
+    // Whether the last call on this thread was answered from memory
+    private static final ThreadLocal<Boolean> recalled = ThreadLocal.withInitial(() -> false);
+
+    private final Resolver resolver;
+    private final int capacity;
+    private final ResourceStore store;
+    private final LinkedHashMap<String, Answer> answers;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /** Create a memoizing resolver.
+     *
+     * @param resolver The resolver
+     * @param capacity The maximum number of answers to remember
+     * @param store Where to keep the content of the resources, or null to open them each time
+     */
+    public MemoizingResolver(Resolver resolver, int capacity, ResourceStore store) {
+        this.resolver = resolver;
+        this.capacity = capacity;
+        this.store = store;
+        answers = new LinkedHashMap<String, Answer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Answer> eldest) {
+                return size() > MemoizingResolver.this.capacity;
+            }
+        };
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public ResourceStore getStore() {
+        return store;
+    }
+
+    public long getHits() {
+        return hits.sum() + negativeHits.sum();
+    }
+
+    public long getNegativeHits() {
+        return negativeHits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        synchronized (answers) {
+            return answers.size();
+        }
+    }
+
+    /** Forget the identifiers that weren't found. */
+    public void forgetMisses() {
+        synchronized (answers) {
+            answers.values().removeIf(answer -> answer == MISS);
+        }
+    }
+
+    /** Was the last call on this thread answered from memory?
+     *
+     * <p>This also resets the answer, so it's only true once per call.</p>
+     */
+    public static boolean recalled() {
+        boolean answer = recalled.get();
+        recalled.set(false);
+        return answer;
+    }
+
+    /** A one line summary of the hit rate. */
+    public String summary() {
+        long hitCount = getHits();
+        long total = hitCount + getMisses();
+        return String.format("Resolution cache: %d hits (%d negative), %d misses, %.1f%% hit rate, %d entries",
+                hitCount, getNegativeHits(), getMisses(), total == 0 ? 0.0 : 100.0 * hitCount / total, size());
+    }
+
+    @Override
+    public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
+        String key = key("entity", publicId, systemId);
+        Answer answer = recall(key);
+        if (answer == MISS) {
+            return null;
+        }
+        if (answer != null) {
+            InputStream stream = answer.open(store);
+            if (stream != null) {
+                return answer.inputSource(stream, publicId);
+            }
+        }
+
+        InputSource source = resolver.resolveEntity(publicId, systemId);
+        remember(key, source instanceof ResolverInputSource ? ((ResolverInputSource) source).resolvedURI : null, source);
+        return source;
+    }
+
+    @Override
+    public InputSource getExternalSubset(String name, String baseURI) throws SAXException, IOException {
+        String key = key("subset", name, baseURI);
+        Answer answer = recall(key);
+        if (answer == MISS) {
+            return null;
+        }
+        if (answer != null) {
+            InputStream stream = answer.open(store);
+            if (stream != null) {
+                return answer.inputSource(stream, null);
+            }
+        }
+
+        InputSource source = resolver.getExternalSubset(name, baseURI);
+        remember(key, source instanceof ResolverInputSource ? ((ResolverInputSource) source).resolvedURI : null, source);
+        return source;
+    }
+
+    @Override
+    public InputSource resolveEntity(String name, String publicId, String baseURI, String systemId) throws SAXException, IOException {
+        String key = key("entity2", name, publicId, baseURI, systemId);
+        Answer answer = recall(key);
+        if (answer == MISS) {
+            return null;
+        }
+        if (answer != null) {
+            InputStream stream = answer.open(store);
+            if (stream != null) {
+                return answer.inputSource(stream, publicId);
+            }
+        }
+
+        InputSource source = resolver.resolveEntity(name, publicId, baseURI, systemId);
+        remember(key, source instanceof ResolverInputSource ? ((ResolverInputSource) source).resolvedURI : null, source);
+        return source;
+    }
+
+    @Override
+    public Source resolve(String href, String base) throws TransformerException {
+        String key = key("uri", href, base);
+        Answer answer = recall(key);
+        if (answer == MISS) {
+            return null;
+        }
+        if (answer != null) {
+            InputStream stream = answer.open(store);
+            if (stream != null) {
+                ResolverSAXSource source = new ResolverSAXSource(answer.resolved, answer.inputSource(stream, null));
+                source.setSystemId(answer.systemId);
+                return source;
+            }
+        }
+
+        Source source = resolver.resolve(href, base);
+        remember(key, source instanceof ResolverSAXSource ? ((ResolverSAXSource) source).resolvedURI : null, source);
+        return source;
+    }
+
+    @Override
+    public LSInput resolveResource(String type, String namespaceURI, String publicId, String systemId, String baseURI) {
+        String key = key("resource", type, namespaceURI, publicId, systemId, baseURI);
+        Answer answer = recall(key);
+        if (answer == MISS) {
+            return null;
+        }
+        if (answer != null) {
+            InputStream stream = answer.open(store);
+            if (stream != null) {
+                return new ResolverLSInput(answer.resolved, stream, publicId, answer.systemId);
+            }
+        }
+
+        LSInput source = resolver.resolveResource(type, namespaceURI, publicId, systemId, baseURI);
+        remember(key, source instanceof ResolverLSInput ? ((ResolverLSInput) source).resolvedURI : null, source);
+        return source;
+    }
+
+    private Answer recall(String key) {
+        Answer answer;
+        synchronized (answers) {
+            answer = answers.get(key);
+        }
+        recalled.set(answer != null);
+        if (answer == null) {
+            misses.increment();
+        } else if (answer == MISS) {
+            negativeHits.increment();
+        } else {
+            hits.increment();
+        }
+        return answer;
+    }
+
+    private void remember(String key, URI resolved, Object source) {
+        // The resolver answered after all
+        recalled.set(false);
+        Answer answer;
+        if (source == null) {
+            answer = MISS;
+        } else if (resolved != null && Answer.canReopen(resolved)) {
+            String systemId = null;
+            if (source instanceof InputSource) {
+                systemId = ((InputSource) source).getSystemId();
+            } else if (source instanceof Source) {
+                systemId = ((Source) source).getSystemId();
+            } else if (source instanceof LSInput) {
+                systemId = ((LSInput) source).getSystemId();
+            }
+            answer = new Answer(resolved, systemId);
+        } else {
+            // Something we can't reopen cheaply (or at all); forget any earlier answer
+            synchronized (answers) {
+                answers.remove(key);
+            }
+            return;
+        }
+        synchronized (answers) {
+            answers.put(key, answer);
+        }
+    }
+
+    private static String key(String entryPoint, String... parts) {
+        StringBuilder sb = new StringBuilder(entryPoint);
+        for (String part : parts) {
+            // Distinguish null from the empty string
+            sb.append(part == null ? "\u0000" : "\u0001" + part);
+        }
+        return sb.toString();
+    }
+
+    private static class Answer {
+        private final URI resolved;
+        private final String systemId;
+
+        Answer(URI resolved, String systemId) {
+            this.resolved = resolved;
+            this.systemId = systemId;
+        }
+
+        static boolean canReopen(URI uri) {
+            String scheme = uri.getScheme();
+            return "file".equals(scheme) || "jar".equals(scheme) || "classpath".equals(scheme);
+        }
+
+        InputStream open(ResourceStore store) {
+            try {
+                return store == null ? ResourceStore.openStream(resolved) : store.open(resolved);
+            } catch (IOException ex) {
+                // It's gone; ask the resolver again
+                return null;
+            }
+        }
+
+        InputSource inputSource(InputStream stream, String publicId) {
+            ResolverInputSource source = new ResolverInputSource(resolved, stream);
+            source.setSystemId(systemId);
+            source.setPublicId(publicId);
+            return source;
+        }
+    }
+}
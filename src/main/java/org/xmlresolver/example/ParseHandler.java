@@ -0,0 +1,32 @@
+package org.xmlresolver.example;
+
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+
+/** Report errors, and remember whether there were any. */
+
+class ParseHandler extends DefaultHandler {
+    private boolean valid = true;
+
+    public boolean getValid() {
+        return valid;
+    }
+
+    @Override
+    public void fatalError(SAXParseException ex) throws SAXException {
+        valid = false;
+        System.err.println(ex.getMessage());
+    }
+
+    @Override
+    public void error(SAXParseException ex) throws SAXException {
+        valid = false;
+        System.err.println(ex.getMessage());
+    }
+
+    @Override
+    public void warning(SAXParseException ex) throws SAXException {
+        System.err.println(ex.getMessage());
+    }
+}
@@ -0,0 +1,401 @@
+package org.xmlresolver.example;
+
+import org.xml.sax.InputSource;
+import org.xmlresolver.CatalogManager;
+import org.xmlresolver.Resolver;
+import org.xmlresolver.ResolverFeature;
+import org.xmlresolver.sources.ResolverInputSource;
+import org.xmlresolver.sources.ResolverSAXSource;
+import org.xmlresolver.utils.URIUtils;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.Source;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** Fill the resolver's cache with everything a schema (or document) needs.
+ *
+ * <p>Starting from a DTD, XML Schema, RELAX NG grammar, or document, the prefetcher
+ * follows parameter entity and external entity declarations, doctype declarations,
+ * schema includes, imports, and redefines, grammar includes and external references,
+ * <code>xsi:schemaLocation</code> hints, and <code>xml-model</code> processing
+ * instructions. Each resource is requested through the resolver, so resources in
+ * a catalog come from there and anything else is fetched into the cache.</p>
+ *
+ * <p>Resources are fetched in parallel, but no more than a few at a time from any
+ * one host, and with a delay between requests to the same host. Some servers
+ * (the W3C's, notably) penalize clients that ask for too much too quickly.</p>
+ */
+
+class Prefetcher {
+    private static final String XSD_NS = XMLConstants.W3C_XML_SCHEMA_NS_URI;
+    private static final String RNG_NS = "http://relaxng.org/ns/structure/1.0";
+    private static final String LITERAL = "(\"[^\"]*\"|'[^']*')";
+    private static final Pattern COMMENT = Pattern.compile("<!--.*?-->", Pattern.DOTALL);
+    private static final Pattern ENTITY = Pattern.compile(
+            "<!ENTITY\\s+(?:%\\s+)?\\S+\\s+(?:PUBLIC\\s+" + LITERAL + "\\s+" + LITERAL + "|SYSTEM\\s+" + LITERAL + ")(?!\\s+NDATA)");
+    private static final Pattern DOCTYPE = Pattern.compile(
+            "<!DOCTYPE\\s+\\S+\\s+(?:PUBLIC\\s+" + LITERAL + "\\s+" + LITERAL + "|SYSTEM\\s+" + LITERAL + ")");
+    private static final Pattern RNC_REF = Pattern.compile("\\b(?:include|external)\\s+" + LITERAL);
+    private static final Pattern HREF = Pattern.compile("\\bhref\\s*=\\s*" + LITERAL);
+
+    private final Resolver resolver;
+    private final CatalogManager manager;
+    private final int threads;
+    private final int perHost;
+    private final long delay;
+    private final PrintStream out;
+    private final Map<String, Host> hosts = new HashMap<>();
+
+    public Prefetcher(Resolver resolver, int threads, int perHost, long delay, PrintStream out) {
+        this.resolver = resolver;
+        this.manager = resolver.getConfiguration().getFeature(ResolverFeature.CATALOG_MANAGER);
+        this.threads = threads;
+        this.perHost = perHost;
+        this.delay = delay;
+        this.out = out;
+    }
+
+    /** Prefetch the closure of the starting resources.
+     *
+     * <p>A web resource that the resolver didn't return (so it isn't in the cache) is
+     * still read, so that what it refers to can be prefetched, but it's reported as not
+     * cached, not as fetched.</p>
+     *
+     * @param starts The starting URIs (or filenames)
+     * @return The number of resources that couldn't be fetched or weren't cached
+     */
+    public int prefetch(List<String> starts) {
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompletionService<Result> completion = new ExecutorCompletionService<>(pool);
+        Set<String> seen = new HashSet<>();
+        int outstanding = 0;
+        int fetched = 0;
+        int uncached = 0;
+        int failed = 0;
+
+        for (String uri : starts) {
+            Dependency dep = new Dependency(null, URIUtils.resolve(URIUtils.cwd(), uri).toString(), false);
+            if (seen.add(dep.key())) {
+                completion.submit(() -> fetch(dep));
+                outstanding++;
+            }
+        }
+
+        // All of the bookkeeping happens on this thread; the workers just fetch and parse
+        try {
+            while (outstanding > 0) {
+                Result result = completion.take().get();
+                outstanding--;
+                if (result.error != null) {
+                    failed++;
+                    out.println("✗ " + result.dependency.systemId + ": " + result.error);
+                    continue;
+                }
+                if (result.uncached) {
+                    uncached++;
+                    out.println("✗ " + result.dependency.systemId + ": not cached (the resolver didn't return it, so it was read directly)");
+                } else {
+                    fetched++;
+                    out.println("✓ " + result.dependency.systemId);
+                    out.println("      from: " + (result.resolved == null ? "(not in a catalog or the cache)" : result.resolved));
+                }
+                for (Dependency dep : result.dependencies) {
+                    if (seen.add(dep.key())) {
+                        completion.submit(() -> fetch(dep));
+                        outstanding++;
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException(ex.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        out.printf("Prefetched %d resources in %.2fs; %d not cached, %d failed%n",
+                fetched, (System.nanoTime() - start) / 1e9, uncached, failed);
+        return uncached + failed;
+    }
+
+    private Result fetch(Dependency dep) {
+        URI uri = URI.create(dep.systemId);
+        Host host = null;
+        try {
+            if (isRemote(dep)) {
+                Host remote = host(uri.getHost());
+                remote.acquire();
+                // Only release a permit we actually got
+                host = remote;
+            }
+
+            URI resolved = null;
+            InputStream stream = null;
+            if (dep.entity) {
+                InputSource source = resolver.resolveEntity(dep.publicId, dep.systemId);
+                if (source instanceof ResolverInputSource) {
+                    resolved = ((ResolverInputSource) source).resolvedURI;
+                    stream = source.getByteStream();
+                }
+            } else {
+                Source source = resolver.resolve(dep.systemId, null);
+                if (source instanceof ResolverSAXSource) {
+                    resolved = ((ResolverSAXSource) source).resolvedURI;
+                    stream = ((ResolverSAXSource) source).getInputSource().getByteStream();
+                }
+            }
+            boolean uncached = false;
+            if (stream == null) {
+                // Not through the cache; a local file doesn't need to be in it, but a web resource does
+                uncached = "http".equals(uri.getScheme()) || "https".equals(uri.getScheme());
+                stream = uri.toURL().openStream();
+            }
+
+            byte[] content;
+            try (InputStream in = stream) {
+                content = readAll(in);
+            }
+            return new Result(dep, resolved, dependencies(dep.systemId, content), uncached, null);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return new Result(dep, null, null, false, "Interrupted");
+        } catch (Exception ex) {
+            return new Result(dep, null, null, false, ex.getMessage() == null ? ex.toString() : ex.getMessage());
+        } finally {
+            if (host != null) {
+                host.release();
+            }
+        }
+    }
+
+    private boolean isRemote(Dependency dep) {
+        String scheme = URI.create(dep.systemId).getScheme();
+        if (!"http".equals(scheme) && !"https".equals(scheme)) {
+            return false;
+        }
+        // If the catalog has it, we won't be going to the network for it
+        URI local = dep.entity
+                ? manager.lookupEntity(null, dep.systemId, dep.publicId)
+                : manager.lookupURI(dep.systemId);
+        return local == null;
+    }
+
+    private Host host(String name) {
+        synchronized (hosts) {
+            return hosts.computeIfAbsent(name == null ? "" : name, k -> new Host(perHost, delay));
+        }
+    }
+
+    /** Find the resources that a resource refers to.
+     *
+     * @param base The URI of the resource
+     * @param content Its content
+     * @return What it refers to, with absolute URIs
+     */
+    static List<Dependency> dependencies(String base, byte[] content) {
+        List<Dependency> deps = new ArrayList<>();
+        String path = URI.create(base).getPath();
+        String ext = path == null || path.lastIndexOf('.') < 0 ? "" : path.substring(path.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+        String text = COMMENT.matcher(new String(content, StandardCharsets.UTF_8)).replaceAll("");
+
+        if ("rnc".equals(ext)) {
+            Matcher matcher = RNC_REF.matcher(text);
+            while (matcher.find()) {
+                deps.add(new Dependency(null, absolute(base, unquote(matcher.group(1))), false));
+            }
+            return deps;
+        }
+
+        // DTDs, and the internal subset of a document
+        Matcher matcher = ENTITY.matcher(text);
+        while (matcher.find()) {
+            addEntity(deps, base, matcher);
+        }
+        if ("dtd".equals(ext) || "ent".equals(ext) || "mod".equals(ext)) {
+            return deps;
+        }
+
+        matcher = DOCTYPE.matcher(text);
+        if (matcher.find()) {
+            addEntity(deps, base, matcher);
+        }
+        xmlDependencies(deps, base, content);
+        return deps;
+    }
+
+    private static void xmlDependencies(List<Dependency> deps, String base, byte[] content) {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try {
+            XMLStreamReader reader = factory.createXMLStreamReader(base, new ByteArrayInputStream(content));
+            try {
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.PROCESSING_INSTRUCTION && "xml-model".equals(reader.getPITarget())) {
+                        Matcher matcher = HREF.matcher(reader.getPIData());
+                        if (matcher.find()) {
+                            deps.add(new Dependency(null, absolute(base, unquote(matcher.group(1))), false));
+                        }
+                    } else if (event == XMLStreamConstants.START_ELEMENT) {
+                        elementDependencies(deps, base, reader);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException ex) {
+            // Probably an entity we didn't load; keep whatever we found before it
+        }
+    }
+
+    private static void elementDependencies(List<Dependency> deps, String base, XMLStreamReader reader) {
+        String ns = reader.getNamespaceURI();
+        String name = reader.getLocalName();
+        String href = null;
+        if (XSD_NS.equals(ns) && ("include".equals(name) || "import".equals(name) || "redefine".equals(name) || "override".equals(name))) {
+            href = reader.getAttributeValue(null, "schemaLocation");
+        } else if (RNG_NS.equals(ns) && ("include".equals(name) || "externalRef".equals(name))) {
+            href = reader.getAttributeValue(null, "href");
+        }
+        if (href != null) {
+            deps.add(new Dependency(null, absolute(base, href), false));
+        }
+
+        String hints = reader.getAttributeValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "schemaLocation");
+        if (hints != null) {
+            String[] pairs = hints.trim().split("\\s+");
+            for (int pos = 1; pos < pairs.length; pos += 2) {
+                deps.add(new Dependency(null, absolute(base, pairs[pos]), false));
+            }
+        }
+        String hint = reader.getAttributeValue(XMLConstants.W3C_XML_SCHEMA_INSTANCE_NS_URI, "noNamespaceSchemaLocation");
+        if (hint != null) {
+            deps.add(new Dependency(null, absolute(base, hint.trim()), false));
+        }
+    }
+
+    private static void addEntity(List<Dependency> deps, String base, Matcher matcher) {
+        if (matcher.group(1) != null) {
+            deps.add(new Dependency(unquote(matcher.group(1)), absolute(base, unquote(matcher.group(2))), true));
+        } else {
+            deps.add(new Dependency(null, absolute(base, unquote(matcher.group(3))), true));
+        }
+    }
+
+    private static String unquote(String literal) {
+        return literal.substring(1, literal.length() - 1);
+    }
+
+    private static String absolute(String base, String href) {
+        return URIUtils.resolve(URI.create(base), href).toString();
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int len;
+        while ((len = in.read(buf)) >= 0) {
+            bytes.write(buf, 0, len);
+        }
+        return bytes.toByteArray();
+    }
+
+    static class Dependency {
+        private final String publicId;
+        private final String systemId;
+        private final boolean entity;
+
+        Dependency(String publicId, String systemId, boolean entity) {
+            this.publicId = publicId;
+            this.systemId = systemId;
+            this.entity = entity;
+        }
+
+        String key() {
+            return (entity ? "entity " : "uri ") + systemId;
+        }
+    }
+
+    private static class Result {
+        private final Dependency dependency;
+        private final URI resolved;
+        private final List<Dependency> dependencies;
+        private final boolean uncached;
+        private final String error;
+
+        Result(Dependency dependency, URI resolved, List<Dependency> dependencies, boolean uncached, String error) {
+            this.dependency = dependency;
+            this.resolved = resolved;
+            this.dependencies = dependencies;
+            this.uncached = uncached;
+            this.error = error;
+        }
+    }
+
+    /** The limits for one host: how many requests at once, and how often. */
+    private static class Host {
+        private final Semaphore permits;
+        private final long delay;
+        private long next = 0;
+
+        Host(int permits, long delay) {
+            this.permits = new Semaphore(permits);
+            this.delay = delay;
+        }
+
+        /** Wait for a permit, and then for this host's next slot.
+         *
+         * <p>If the wait is interrupted, no permit is held.</p>
+         */
+        void acquire() throws InterruptedException {
+            permits.acquire();
+            long wait;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                long slot = Math.max(now, next);
+                next = slot + delay;
+                wait = slot - now;
+            }
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException ex) {
+                    permits.release();
+                    throw ex;
+                }
+            }
+        }
+
+        void release() {
+            permits.release();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.xmlresolver.example;
+
+import com.beust.jcommander.ParameterException;
+import com.thaiopensource.util.PropertyMapBuilder;
+import com.thaiopensource.validate.IncorrectSchemaException;
+import com.thaiopensource.validate.Schema;
+import com.thaiopensource.validate.SchemaReader;
+import com.thaiopensource.validate.ValidateProperty;
+import com.thaiopensource.validate.Validator;
+import com.thaiopensource.validate.auto.AutoSchemaReader;
+import com.thaiopensource.validate.rng.CompactSchemaReader;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xmlresolver.sources.ResolverSAXSource;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.sax.SAXSource;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Collections;
+
+/** RELAX NG validation with Jing.
+ *
+ * <p>This is the only class that uses Jing, so Jing isn't loaded unless there's
+ * a grammar to validate with.</p>
+ */
+
+class RelaxNGStage {
+    private final Schema schema;
+    private final ChattyResolver chattyResolver;
+
+    /** Load the grammar, from the cache if it's there.
+     *
+     * @param grammarCache The cache of compiled grammars
+     * @param chattyResolver The resolver
+     * @param grammar The grammar, as given on the command line
+     */
+    public RelaxNGStage(GrammarCache grammarCache, ChattyResolver chattyResolver, String grammar) {
+        this.chattyResolver = chattyResolver;
+        try {
+            Source schemaSource = chattyResolver.resolve(grammar, null);
+            String schemaURI;
+            String location;
+            InputStream opened = null;
+            if (schemaSource == null) {
+                URI suri = URI.create("file://" + System.getProperty("user.dir") + "/").resolve(grammar);
+                schemaURI = suri.toString();
+                location = schemaURI;
+            } else {
+                // The grammar's base URI is the one it was asked for by, but it's read from wherever
+                // it resolved to. If the stamp needs the content, it reads the stream the resolver opened.
+                InputSource schemaInput = ((ResolverSAXSource) schemaSource).getInputSource();
+                schemaURI = schemaInput.getSystemId();
+                URI resolved = ((ResolverSAXSource) schemaSource).resolvedURI;
+                location = resolved == null ? schemaURI : resolved.toString();
+                opened = schemaInput.getByteStream();
+            }
+
+            GrammarCache.Stamp stamp = grammarCache.stamp(location, opened);
+            String key = GrammarCache.key("rng", Collections.singletonList(schemaURI),
+                    Collections.singletonList(stamp.getValue()));
+            schema = grammarCache.get(key, () -> compile(schemaURI, location, stamp));
+        } catch (TransformerException te) {
+            throw new ParameterException("Could not lookup URI in catalog: " + te.getMessage());
+        } catch (IOException ioe) {
+            throw new ParameterException("I/O error: " + ioe.getMessage());
+        }
+    }
+
+    /** Validate a document with its own parse.
+     *
+     * @param document The document
+     * @param handler Where to report errors
+     */
+    public void validate(String document, ErrorHandler handler) {
+        Validator validator = newValidator(handler);
+        try {
+            SAXParserFactory spf = SAXParserFactory.newInstance();
+            spf.setNamespaceAware(true);
+            XMLReader reader = spf.newSAXParser().getXMLReader();
+            reader.setContentHandler(validator.getContentHandler());
+            if (validator.getDTDHandler() != null) {
+                reader.setDTDHandler(validator.getDTDHandler());
+            }
+            reader.setErrorHandler(handler);
+            reader.setEntityResolver(chattyResolver);
+            reader.parse(new InputSource(document));
+        } catch (ParserConfigurationException pce) {
+            throw new ParameterException("Could not configure parser: " + pce.getMessage());
+        } catch (SAXException se) {
+            throw new ParameterException("Could not load schema: " + se.getMessage());
+        } catch (IOException ioe) {
+            throw new ParameterException("I/O error: " + ioe.getMessage());
+        }
+    }
+
+    /** Validate a document with the events of someone else's parse.
+     *
+     * @param tee The tee that the parse will feed
+     * @param handler Where to report errors
+     */
+    public void addTo(TeeHandler tee, ErrorHandler handler) {
+        Validator validator = newValidator(handler);
+        tee.add(validator.getContentHandler(), validator.getDTDHandler());
+    }
+
+    private Validator newValidator(ErrorHandler handler) {
+        PropertyMapBuilder builder = new PropertyMapBuilder();
+        builder.put(ValidateProperty.ERROR_HANDLER, handler);
+        return schema.createValidator(builder.toPropertyMap());
+    }
+
+    private Schema compile(String schemaURI, String location, GrammarCache.Stamp stamp) {
+        byte[] content;
+        try {
+            content = stamp.read(location);
+        } catch (IOException ioe) {
+            throw new ParameterException("I/O error: " + ioe.getMessage());
+        }
+
+        PropertyMapBuilder builder = new PropertyMapBuilder();
+        builder.put(ValidateProperty.ENTITY_RESOLVER, chattyResolver);
+        builder.put(ValidateProperty.URI_RESOLVER, chattyResolver);
+        builder.put(ValidateProperty.ERROR_HANDLER, new ParseHandler());
+
+        // The schema has already been read into memory, so we can look at it
+        // to see which syntax it uses without reading it twice.
+        SchemaReader sr = new AutoSchemaReader();
+        if (SchemaSniffer.isCompactSyntax(content)) {
+            sr = CompactSchemaReader.getInstance();
+        }
+
+        InputSource source = new InputSource(new ByteArrayInputStream(content));
+        source.setSystemId(schemaURI);
+        try {
+            return sr.createSchema(new SAXSource(source), builder.toPropertyMap());
+        } catch (IncorrectSchemaException ise) {
+            throw new ParameterException("Could not load schema!");
+        } catch (SAXException se) {
+            throw new ParameterException("Could not load schema: " + se.getMessage());
+        } catch (IOException ioe) {
+            throw new ParameterException("I/O error: " + ioe.getMessage());
+        }
+    }
+}
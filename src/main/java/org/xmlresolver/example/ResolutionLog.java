@@ -0,0 +1,331 @@
+package org.xmlresolver.example;
+
+import com.beust.jcommander.ParameterException;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/** Where the {@link ChattyResolver} reports what it resolved.
+ *
+ * <p>There are three modes: <code>quiet</code> reports nothing, <code>human</code>
+ * prints the familiar ✓/✗ messages, and <code>jsonl</code> writes one JSON object per
+ * event. The JSON Lines events are put in a bounded ring buffer and written out by a
+ * background thread, so the threads doing the resolution never wait for I/O unless
+ * the writer falls a long way behind.</p>
+ *
+ * <p>The resolver checks {@link #isEnabled()} before it creates an event, so in
+ * <code>quiet</code> mode nothing is formatted at all.</p>
+ */
+
+abstract class ResolutionLog implements AutoCloseable {
+    public static final List<String> MODES = Arrays.asList("quiet", "human", "jsonl");
+
+    /** Create a log.
+     *
+     * @param mode The mode, one of {@link #MODES}
+     * @param filename Where to write <code>jsonl</code> events; if null, they're written to <code>out</code>
+     * @param out The stream for <code>human</code> messages (and <code>jsonl</code> events without a filename)
+     * @return The log
+     */
+    public static ResolutionLog create(String mode, String filename, PrintStream out) {
+        switch (mode) {
+            case "quiet":
+                return new Quiet();
+            case "human":
+                return new Human(out);
+            case "jsonl":
+                try {
+                    Writer writer = filename == null
+                            ? new OutputStreamWriter(out, StandardCharsets.UTF_8)
+                            : Files.newBufferedWriter(Paths.get(filename), StandardCharsets.UTF_8);
+                    return new Jsonl(writer, filename != null);
+                } catch (IOException ioe) {
+                    throw new ParameterException("Could not write resolution log: " + filename + ": " + ioe.getMessage());
+                }
+            default:
+                throw new ParameterException("Invalid resolver output: " + mode + " (must be one of " + String.join(", ", MODES) + ")");
+        }
+    }
+
+    /** Keep the events from each thread together.
+     *
+     * <p>Each thread's events are held back until that thread calls {@link #flush()}, and
+     * then they're written all at once, so the events from several parser threads don't
+     * interleave. Any that are still held back when the log is closed are written then.</p>
+     *
+     * @param log The log to write the events to
+     * @return The log
+     */
+    public static ResolutionLog perThread(ResolutionLog log) {
+        return log.isEnabled() ? new PerThread(log) : log;
+    }
+
+    public abstract boolean isEnabled();
+
+    public abstract void log(Event event);
+
+    /** Write several events together.
+     *
+     * @param events The events
+     */
+    protected void logAll(List<Event> events) {
+        for (Event event : events) {
+            log(event);
+        }
+    }
+
+    /** Write any events held back for the calling thread. */
+    public void flush() {
+        // nop
+    }
+
+    /** Finish writing any pending events. */
+    @Override
+    public void close() {
+        // nop
+    }
+
+    /** One call to the resolver.
+     *
+     * <p>The request is recorded as name/value pairs. The human readable form is only
+     * computed if it's needed.</p>
+     */
+    static class Event {
+        private final long time = System.currentTimeMillis();
+        private final String thread = Thread.currentThread().getName();
+        private final String callback;
+        private final String[] request;
+        private final String resolvedAs;
+        private final URI resolvedFrom;
+        private final Supplier<String> display;
+
+        public Event(String callback, String resolvedAs, URI resolvedFrom, Supplier<String> display, String... request) {
+            this.callback = callback;
+            this.resolvedAs = resolvedAs;
+            this.resolvedFrom = resolvedFrom;
+            this.display = display;
+            this.request = request;
+        }
+
+        public boolean isResolved() {
+            return resolvedFrom != null;
+        }
+
+        private String toHuman() {
+            String nl = System.lineSeparator();
+            if (isResolved()) {
+                return "✓ Resolved: " + display.get() + nl
+                        + "        as: " + resolvedAs + nl
+                        + "      from: " + resolvedFrom;
+            }
+            return "✗ Resolved: " + display.get();
+        }
+
+        private String toJson() {
+            StringBuilder sb = new StringBuilder(256);
+            sb.append("{\"time\":").append(time);
+            sb.append(",\"thread\":").append(Json.quote(thread));
+            sb.append(",\"callback\":").append(Json.quote(callback));
+            for (int pos = 0; pos + 1 < request.length; pos += 2) {
+                if (request[pos + 1] != null) {
+                    sb.append(',').append(Json.quote(request[pos])).append(':').append(Json.quote(request[pos + 1]));
+                }
+            }
+            sb.append(",\"resolved\":").append(isResolved());
+            if (isResolved()) {
+                sb.append(",\"as\":").append(Json.quote(resolvedAs));
+                sb.append(",\"from\":").append(Json.quote(resolvedFrom.toString()));
+            }
+            return sb.append('}').toString();
+        }
+    }
+
+    private static class Quiet extends ResolutionLog {
+        @Override
+        public boolean isEnabled() {
+            return false;
+        }
+
+        @Override
+        public void log(Event event) {
+            // nop
+        }
+    }
+
+    private static class Human extends ResolutionLog {
+        private final PrintStream out;
+
+        Human(PrintStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public void log(Event event) {
+            // One call, so that the lines of an event stay together when documents are processed in parallel
+            out.println(event.toHuman());
+        }
+
+        @Override
+        protected void logAll(List<Event> events) {
+            StringBuilder sb = new StringBuilder();
+            for (Event event : events) {
+                sb.append(event.toHuman()).append(System.lineSeparator());
+            }
+            out.print(sb);
+        }
+    }
+
+    private static class PerThread extends ResolutionLog {
+        private final ResolutionLog log;
+        // Each list is only used by its own thread, until the log is closed
+        private final ConcurrentHashMap<Thread, List<Event>> pending = new ConcurrentHashMap<>();
+
+        PerThread(ResolutionLog log) {
+            this.log = log;
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public void log(Event event) {
+            pending.computeIfAbsent(Thread.currentThread(), thread -> new ArrayList<>()).add(event);
+        }
+
+        @Override
+        public void flush() {
+            List<Event> events = pending.remove(Thread.currentThread());
+            if (events != null) {
+                write(events);
+            }
+        }
+
+        private synchronized void write(List<Event> events) {
+            log.logAll(events);
+        }
+
+        @Override
+        public void close() {
+            for (List<Event> events : pending.values()) {
+                write(events);
+            }
+            pending.clear();
+            log.close();
+        }
+    }
+
+    private static class Jsonl extends ResolutionLog {
+        private static final int CAPACITY = 8192;
+        private static final Event END = new Event(null, null, null, null);
+        private final ArrayBlockingQueue<Event> ring = new ArrayBlockingQueue<>(CAPACITY);
+        private final BufferedWriter writer;
+        private final boolean closeWriter;
+        private final Thread thread;
+        private volatile IOException failure = null;
+
+        Jsonl(Writer writer, boolean closeWriter) {
+            this.writer = writer instanceof BufferedWriter ? (BufferedWriter) writer : new BufferedWriter(writer);
+            this.closeWriter = closeWriter;
+            thread = new Thread(this::drain, "resolution-log");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public boolean isEnabled() {
+            return true;
+        }
+
+        @Override
+        public void log(Event event) {
+            try {
+                ring.put(event);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void drain() {
+            List<Event> batch = new ArrayList<>();
+            while (true) {
+                try {
+                    batch.add(ring.take());
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                ring.drainTo(batch);
+                for (Event event : batch) {
+                    if (event == END) {
+                        flushWriter();
+                        return;
+                    }
+                    write(event);
+                }
+                batch.clear();
+                if (ring.isEmpty()) {
+                    flushWriter();
+                }
+            }
+        }
+
+        private void write(Event event) {
+            // After a failure, keep draining so that the resolver threads are never blocked
+            if (failure == null) {
+                try {
+                    writer.write(event.toJson());
+                    writer.newLine();
+                } catch (IOException ioe) {
+                    failure = ioe;
+                }
+            }
+        }
+
+        private void flushWriter() {
+            if (failure == null) {
+                try {
+                    writer.flush();
+                } catch (IOException ioe) {
+                    failure = ioe;
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                ring.put(END);
+                thread.join();
+                if (closeWriter) {
+                    writer.close();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (IOException ioe) {
+                failure = ioe;
+            }
+            if (failure != null) {
+                throw new ParameterException("Could not write resolution log: " + failure.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package org.xmlresolver.example;
+
+import com.beust.jcommander.ParameterException;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/** How long resolution takes, and what the answer was.
+ *
+ * <p>There's a latency histogram for each resolver entry point and each outcome.
+ * The outcome is worked out from where the resource came from: a jar (or the
+ * classpath), the resolver's cache, the network, or some other place a catalog
+ * pointed to. If the resolver didn't return anything, the parser will fetch the
+ * resource itself: if it's an http(s) URI, that's the network too, otherwise it's
+ * a miss. An answer the {@link MemoizingResolver} remembered is counted separately,
+ * whatever it was.</p>
+ *
+ * <p>The histograms are exposed as an MXBean and can be written as a Prometheus
+ * text or JSON snapshot. The counters are {@link LongAdder}s, so recording a
+ * call doesn't make the parser threads contend with each other.</p>
+ */
+
+class ResolutionMetrics implements ResolutionMetricsMXBean {
+    public static final String OBJECT_NAME = "org.xmlresolver.example:type=ResolutionMetrics";
+    public static final List<String> ENTRY_POINTS = Arrays.asList(
+            "resolveEntity", "getExternalSubset", "resolve", "resolveResource");
+    public static final List<String> OUTCOMES = Arrays.asList(
+            "catalog", "cache", "jar", "network", "miss", "memo");
+
+    // Bucket upper bounds in nanoseconds; the last bucket is +Inf
+    private static final long[] BOUNDS = {
+            100_000L, 250_000L, 500_000L,
+            1_000_000L, 2_500_000L, 5_000_000L,
+            10_000_000L, 25_000_000L, 50_000_000L,
+            100_000_000L, 250_000_000L, 500_000_000L,
+            1_000_000_000L, 2_500_000_000L, 5_000_000_000L, 10_000_000_000L};
+
+    private final Histogram[][] histograms = new Histogram[ENTRY_POINTS.size()][OUTCOMES.size()];
+
+    public ResolutionMetrics() {
+        for (Histogram[] row : histograms) {
+            for (int pos = 0; pos < row.length; pos++) {
+                row[pos] = new Histogram();
+            }
+        }
+    }
+
+    /** Register these metrics with the platform MBean server.
+     *
+     * <p>It's not an error to register more than once.</p>
+     */
+    public void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.registerMBean(this, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException ex) {
+            // nevermind
+        } catch (JMException ex) {
+            System.err.println("Could not register resolution metrics with JMX: " + ex.getMessage());
+        }
+    }
+
+    /** A recorder for one run.
+     *
+     * @param cacheDirectory The resolver's cache directory, or null
+     * @return The recorder
+     */
+    public Recorder recorder(String cacheDirectory) {
+        return new Recorder(cacheDirectory == null ? null : Paths.get(cacheDirectory).toAbsolutePath().normalize().toString());
+    }
+
+    @Override
+    public long getResolutions() {
+        long count = 0;
+        for (Histogram[] row : histograms) {
+            for (Histogram histogram : row) {
+                count += histogram.count.sum();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public double getTotalSeconds() {
+        long nanos = 0;
+        for (Histogram[] row : histograms) {
+            for (Histogram histogram : row) {
+                nanos += histogram.nanos.sum();
+            }
+        }
+        return nanos / 1e9;
+    }
+
+    @Override
+    public Map<String, Long> getResolutionsByOutcome() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int outcome = 0; outcome < OUTCOMES.size(); outcome++) {
+            long count = 0;
+            for (Histogram[] row : histograms) {
+                count += row[outcome].count.sum();
+            }
+            counts.put(OUTCOMES.get(outcome), count);
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getResolutionsByEntryPoint() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (int entry = 0; entry < ENTRY_POINTS.size(); entry++) {
+            long count = 0;
+            for (Histogram histogram : histograms[entry]) {
+                count += histogram.count.sum();
+            }
+            counts.put(ENTRY_POINTS.get(entry), count);
+        }
+        return counts;
+    }
+
+    @Override
+    public String getPrometheusSnapshot() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# HELP sampleapp_resolution_seconds Time spent in the resolver, by entry point and outcome\n");
+        sb.append("# TYPE sampleapp_resolution_seconds histogram\n");
+        for (int entry = 0; entry < ENTRY_POINTS.size(); entry++) {
+            for (int outcome = 0; outcome < OUTCOMES.size(); outcome++) {
+                Histogram histogram = histograms[entry][outcome];
+                long count = histogram.count.sum();
+                if (count == 0) {
+                    continue;
+                }
+                String labels = "entry_point=\"" + ENTRY_POINTS.get(entry) + "\",outcome=\"" + OUTCOMES.get(outcome) + "\"";
+                long cumulative = 0;
+                for (int bucket = 0; bucket < BOUNDS.length; bucket++) {
+                    cumulative += histogram.buckets[bucket].sum();
+                    sb.append("sampleapp_resolution_seconds_bucket{").append(labels)
+                            .append(",le=\"").append(seconds(BOUNDS[bucket])).append("\"} ").append(cumulative).append('\n');
+                }
+                sb.append("sampleapp_resolution_seconds_bucket{").append(labels).append(",le=\"+Inf\"} ").append(count).append('\n');
+                sb.append("sampleapp_resolution_seconds_sum{").append(labels).append("} ").append(seconds(histogram.nanos.sum())).append('\n');
+                sb.append("sampleapp_resolution_seconds_count{").append(labels).append("} ").append(count).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    /** The histograms as JSON. */
+    public String getJsonSnapshot() {
+        StringBuilder sb = new StringBuilder("{\"resolutions\":[");
+        String sep = "";
+        for (int entry = 0; entry < ENTRY_POINTS.size(); entry++) {
+            for (int outcome = 0; outcome < OUTCOMES.size(); outcome++) {
+                Histogram histogram = histograms[entry][outcome];
+                long count = histogram.count.sum();
+                if (count == 0) {
+                    continue;
+                }
+                sb.append(sep).append("\n  {\"entryPoint\":").append(Json.quote(ENTRY_POINTS.get(entry)));
+                sb.append(",\"outcome\":").append(Json.quote(OUTCOMES.get(outcome)));
+                sb.append(",\"count\":").append(count);
+                sb.append(",\"sumSeconds\":").append(seconds(histogram.nanos.sum()));
+                sb.append(",\"buckets\":{");
+                for (int bucket = 0; bucket < BOUNDS.length; bucket++) {
+                    sb.append(Json.quote(seconds(BOUNDS[bucket]))).append(':').append(histogram.buckets[bucket].sum()).append(',');
+                }
+                sb.append("\"+Inf\":").append(histogram.buckets[BOUNDS.length].sum()).append("}}");
+                sep = ",";
+            }
+        }
+        return sb.append("\n]}\n").toString();
+    }
+
+    /** Write a snapshot.
+     *
+     * @param filename The file; if it ends in <code>.json</code> the snapshot is JSON, otherwise it's Prometheus text
+     */
+    public void write(String filename) {
+        String snapshot = filename.endsWith(".json") ? getJsonSnapshot() : getPrometheusSnapshot();
+        try {
+            Files.write(Paths.get(filename), snapshot.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException ioe) {
+            throw new ParameterException("Could not write metrics: " + filename + ": " + ioe.getMessage());
+        }
+    }
+
+    private static String seconds(long nanos) {
+        return BigDecimal.valueOf(nanos).movePointLeft(9).stripTrailingZeros().toPlainString();
+    }
+
+    private static class Histogram {
+        private final LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        Histogram() {
+            for (int pos = 0; pos < buckets.length; pos++) {
+                buckets[pos] = new LongAdder();
+            }
+        }
+
+        void record(long elapsed) {
+            int bucket = 0;
+            while (bucket < BOUNDS.length && elapsed > BOUNDS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            count.increment();
+            nanos.add(elapsed);
+        }
+    }
+
+    /** Records calls for one run, knowing where that run's cache is. */
+    class Recorder {
+        private final String cachePath;
+
+        private Recorder(String cachePath) {
+            this.cachePath = cachePath;
+        }
+
+        /** Record a call to the resolver.
+         *
+         * @param entryPoint The entry point, one of {@link #ENTRY_POINTS}
+         * @param requested The (absolute) URI that was asked for, or null if there wasn't one;
+         * it's only used if the call wasn't resolved, so callers needn't work it out otherwise
+         * @param resolved Where the resource came from, or null if it wasn't resolved
+         * @param recalled Was the answer remembered from an earlier call?
+         * @param elapsed How long the call took, in nanoseconds
+         */
+        public void record(String entryPoint, URI requested, URI resolved, boolean recalled, long elapsed) {
+            String outcome = recalled ? "memo" : outcome(requested, resolved);
+            histograms[ENTRY_POINTS.indexOf(entryPoint)][OUTCOMES.indexOf(outcome)].record(elapsed);
+        }
+
+        private String outcome(URI requested, URI resolved) {
+            if (resolved == null) {
+                // The parser gets it from wherever the URI says
+                if (requested != null && ("http".equals(requested.getScheme()) || "https".equals(requested.getScheme()))) {
+                    return "network";
+                }
+                return "miss";
+            }
+            String scheme = resolved.getScheme() == null ? "" : resolved.getScheme();
+            switch (scheme) {
+                case "jar":
+                case "classpath":
+                    return "jar";
+                case "http":
+                case "https":
+                    return "network";
+                default:
+                    if (cachePath != null && "file".equals(scheme) && resolved.getPath().startsWith(cachePath)) {
+                        return "cache";
+                    }
+                    return "catalog";
+            }
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package org.xmlresolver.example;
+
+import java.util.Map;
+
+/** The JMX view of the {@link ResolutionMetrics}. */
+public interface ResolutionMetricsMXBean {
+    /** The total number of calls to the resolver. */
+    long getResolutions();
+
+    /** The total time spent in the resolver, in seconds. */
+    double getTotalSeconds();
+
+    /** The number of calls to the resolver, by outcome. */
+    Map<String, Long> getResolutionsByOutcome();
+
+    /** The number of calls to the resolver, by entry point. */
+    Map<String, Long> getResolutionsByEntryPoint();
+
+    /** All of the histograms, in the Prometheus text format. */
+    String getPrometheusSnapshot();
+}
@@ -0,0 +1,275 @@
+package org.xmlresolver.example;
+
+import com.beust.jcommander.ParameterException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/** A resident SampleApp.
+ *
+ * <p>Starting the JVM, loading the catalogs, and loading the parser, validator, and
+ * XSLT classes often takes longer than the command itself. The daemon does all of
+ * that once and then runs commands sent to it over HTTP on the loopback interface.</p>
+ *
+ * <p>A request is a POST to <code>/run</code> with the command line in the body, one
+ * argument per line. The response is whatever the command printed; the exit status
+ * is in the <code>X-Exit-Status</code> header. Any HTTP client will do, but
+ * <code>SampleApp -connect:port …</code> is a thin client that sends its own command
+ * line.</p>
+ *
+ * <p>Anything on the machine can connect to the loopback interface, including web
+ * pages open in a browser, and a command can read and write files (an XSLT stylesheet
+ * can do both). So when it starts, the daemon writes a random token to a file that only
+ * its user can read, <code>~/.sampleapp/daemon-<em>port</em>.token</code>, and a request
+ * must send it in the <code>X-SampleApp-Token</code> header. A browser can't send a
+ * custom header without a CORS preflight, which the daemon never answers, and any
+ * request with an <code>Origin</code> header is refused anyway.</p>
+ *
+ * <p>The commands write their output to <code>System.out</code> and
+ * <code>System.err</code>, so requests are run one at a time with both streams
+ * redirected to the response. Relative filenames are resolved against the
+ * daemon's working directory, not the client's.</p>
+ */
+
+class ResolverDaemon {
+    public static final int DEFAULT_PORT = 8765;
+    public static final String EXIT_STATUS = "X-Exit-Status";
+    public static final String WORKING_DIRECTORY = "X-Working-Directory";
+    public static final String TOKEN = "X-SampleApp-Token";
+
+    private final SampleApp app;
+    private final int port;
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private HttpServer server = null;
+    private byte[] token = null;
+    private Path tokenFile = null;
+
+    public ResolverDaemon(SampleApp app, int port) {
+        this.app = app;
+        this.port = port;
+    }
+
+    /** The file where the token for a daemon on this port is kept. */
+    public static Path tokenFile(int port) {
+        return Paths.get(System.getProperty("user.home"), ".sampleapp", "daemon-" + port + ".token");
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        writeToken(tokenFile(server.getAddress().getPort()));
+        server.createContext("/run", this::run);
+        // No executor: requests are handled one at a time on the dispatcher thread,
+        // which is what we want since each one takes over System.out.
+        server.setExecutor(null);
+        server.start();
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+            try {
+                Files.deleteIfExists(tokenFile);
+            } catch (IOException ex) {
+                // nevermind; it'll be replaced the next time
+            }
+            stopped.countDown();
+        }
+    }
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    public Path getTokenFile() {
+        return tokenFile;
+    }
+
+    private void writeToken(Path file) throws IOException {
+        byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : random) {
+            sb.append(String.format("%02x", b));
+        }
+        token = sb.toString().getBytes(StandardCharsets.US_ASCII);
+
+        // Create the file with the right permissions, rather than fixing them afterwards
+        Files.deleteIfExists(file);
+        try {
+            Files.createDirectories(file.getParent(), PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException ex) {
+            // Not a POSIX file system; the user's home directory will have to do
+            Files.createDirectories(file.getParent());
+            Files.createFile(file);
+        }
+        Files.write(file, token);
+        tokenFile = file;
+    }
+
+    private boolean authorized(HttpExchange exchange) {
+        if (exchange.getRequestHeaders().containsKey("Origin")) {
+            // Sent by a browser on behalf of some web page
+            return false;
+        }
+        String sent = exchange.getRequestHeaders().getFirst(TOKEN);
+        return sent != null && MessageDigest.isEqual(token, sent.trim().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /** Wait until the daemon is stopped. */
+    public void await() {
+        try {
+            stopped.await();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(405, -1);
+            exchange.close();
+            return;
+        }
+        if (!authorized(exchange)) {
+            exchange.sendResponseHeaders(403, -1);
+            exchange.close();
+            return;
+        }
+
+        List<String> args = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                args.add(line);
+            }
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream capture = new PrintStream(buffer, true, "UTF-8");
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        int status;
+        System.setOut(capture);
+        System.setErr(capture);
+        try {
+            String clientDir = exchange.getRequestHeaders().getFirst(WORKING_DIRECTORY);
+            if (clientDir != null && !clientDir.equals(System.getProperty("user.dir"))) {
+                System.err.println("Warning: relative filenames are resolved against " + System.getProperty("user.dir"));
+            }
+            status = app.run(args.toArray(new String[0]), true);
+        } catch (RuntimeException ex) {
+            ex.printStackTrace(capture);
+            status = 2;
+        } finally {
+            capture.flush();
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+
+        byte[] response = buffer.toByteArray();
+        exchange.getResponseHeaders().add("Content-Type", "text/plain; charset=utf-8");
+        exchange.getResponseHeaders().add(EXIT_STATUS, String.valueOf(status));
+        exchange.sendResponseHeaders(200, response.length == 0 ? -1 : response.length);
+        if (response.length > 0) {
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        }
+        exchange.close();
+    }
+
+    /** Send a command to a daemon.
+     *
+     * <p>The daemon only listens on the loopback interface, and the request carries the
+     * token, so there's no host to choose: a daemon on some other machine would only
+     * learn the token.</p>
+     *
+     * @param port The daemon's port
+     * @param args The command line
+     * @param out Where to write the output of the command
+     * @return The exit status of the command
+     */
+    public static int send(String port, List<String> args, PrintStream out) {
+        if (port.contains(":")) {
+            throw new ParameterException("The daemon only listens on the loopback interface; use -connect:port, not " + port);
+        }
+        String host = InetAddress.getLoopbackAddress().getHostAddress();
+
+        HttpURLConnection conn = null;
+        try {
+            int portNumber = Integer.parseInt(port);
+            String token;
+            try {
+                token = new String(Files.readAllBytes(tokenFile(portNumber)), StandardCharsets.US_ASCII).trim();
+            } catch (NoSuchFileException ex) {
+                throw new ParameterException("No token for a daemon on port " + port + " (" + tokenFile(portNumber)
+                        + "); is it running, as you?");
+            }
+
+            URL url = new URL("http", host, portNumber, "/run");
+            conn = (HttpURLConnection) url.openConnection();
+            conn.setRequestMethod("POST");
+            conn.setDoOutput(true);
+            conn.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
+            conn.setRequestProperty(TOKEN, token);
+            conn.setRequestProperty(WORKING_DIRECTORY, System.getProperty("user.dir"));
+            try (OutputStream body = conn.getOutputStream()) {
+                body.write(String.join("\n", args).getBytes(StandardCharsets.UTF_8));
+            }
+
+            if (conn.getResponseCode() == 403) {
+                throw new ParameterException("The daemon on port " + port + " refused the token in " + tokenFile(portNumber));
+            }
+            if (conn.getResponseCode() != 200) {
+                throw new ParameterException("The daemon on port " + port + " returned " + conn.getResponseCode());
+            }
+
+            try (InputStream in = conn.getInputStream()) {
+                byte[] buf = new byte[8192];
+                int len;
+                while ((len = in.read(buf)) >= 0) {
+                    out.write(buf, 0, len);
+                }
+            }
+            out.flush();
+
+            String status = conn.getHeaderField(EXIT_STATUS);
+            return status == null ? 0 : Integer.parseInt(status);
+        } catch (NumberFormatException ex) {
+            throw new ParameterException("Invalid daemon port: " + port);
+        } catch (ConnectException ex) {
+            throw new ParameterException("Cannot connect to a SampleApp daemon on port " + port);
+        } catch (IOException ex) {
+            throw new ParameterException("Error communicating with the daemon on port " + port + ": " + ex.getMessage());
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+}
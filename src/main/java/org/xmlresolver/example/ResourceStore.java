@@ -0,0 +1,241 @@
+package org.xmlresolver.example;
+
+import com.beust.jcommander.ParameterException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/** The content of resolved resources, kept off the heap.
+ *
+ * <p>A batch of documents that all use the same DTD opens each of its modules once
+ * per document. The store copies the bytes of each resource into a direct buffer the
+ * first time it's opened. After that, opening the resource is just a new stream over
+ * the shared bytes.</p>
+ *
+ * <p>Local files are copied rather than memory-mapped: a file that's truncated while
+ * it's mapped (editors often save in place) makes the next read fail with a bus error.
+ * The size and modification time of a local file are checked each time it's opened,
+ * and if either has changed, the file is read again.</p>
+ *
+ * <p>The store has a byte budget. When it's exceeded, the least recently used
+ * resources are dropped. A resource bigger than the whole budget is never stored.</p>
+ */
+
+class ResourceStore {
+    private final long budget;
+    private final LinkedHashMap<URI, Stored> buffers = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    private long hits = 0;
+    private long loads = 0;
+    private long evictions = 0;
+    private long reloads = 0;
+
+    public ResourceStore(long budget) {
+        this.budget = budget;
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /** Open a resource.
+     *
+     * @param uri The (resolved) URI of the resource
+     * @return A stream over the resource's content
+     * @throws IOException if the resource can't be read
+     */
+    public InputStream open(URI uri) throws IOException {
+        String stamp = stamp(uri);
+        Stored stored;
+        synchronized (this) {
+            stored = buffers.get(uri);
+            if (stored != null && !stored.stamp.equals(stamp)) {
+                // The file has changed since it was read
+                buffers.remove(uri);
+                size -= stored.buffer.capacity();
+                reloads++;
+                stored = null;
+            }
+            if (stored != null) {
+                hits++;
+            }
+        }
+
+        if (stored == null) {
+            // Two threads may both load the same resource; that's harmless and keeps
+            // the lock out of the I/O.
+            stored = new Stored(load(uri), stamp);
+            if (stored.buffer.capacity() > budget) {
+                return new BufferInputStream(stored.buffer);
+            }
+            synchronized (this) {
+                loads++;
+                Stored previous = buffers.put(uri, stored);
+                size += stored.buffer.capacity() - (previous == null ? 0 : previous.buffer.capacity());
+                while (size > budget) {
+                    Map.Entry<URI, Stored> eldest = buffers.entrySet().iterator().next();
+                    size -= eldest.getValue().buffer.capacity();
+                    buffers.remove(eldest.getKey());
+                    evictions++;
+                }
+            }
+        }
+
+        return new BufferInputStream(stored.buffer.duplicate());
+    }
+
+    /** Drop every stored resource, so that each one is read again the next time it's opened. */
+    public synchronized void clear() {
+        buffers.clear();
+        size = 0;
+    }
+
+    /** A one line summary of how the store was used. */
+    public synchronized String summary() {
+        return String.format("Resource store: %d hits, %d loads (%d changed), %d evictions, %d resources, %.1f of %.1f MB",
+                hits, loads, reloads, evictions, buffers.size(), size / 1048576.0, budget / 1048576.0);
+    }
+
+    /** Open a resource directly, without storing it.
+     *
+     * <p>This understands the <code>classpath:</code> URIs that the resolver returns
+     * as well as anything {@link java.net.URL} can open.</p>
+     *
+     * @param uri The URI
+     * @return A stream over its content
+     * @throws IOException if the resource can't be opened
+     */
+    public static InputStream openStream(URI uri) throws IOException {
+        if ("classpath".equals(uri.getScheme())) {
+            String path = uri.getSchemeSpecificPart();
+            InputStream stream = ResourceStore.class.getClassLoader().getResourceAsStream(path.startsWith("/") ? path.substring(1) : path);
+            if (stream == null) {
+                throw new IOException("Not on the classpath: " + uri);
+            }
+            return stream;
+        }
+        return uri.toURL().openStream();
+    }
+
+    /** Parse a size such as <code>64m</code>.
+     *
+     * @param size The size, in bytes or with a k, m, or g suffix
+     * @return The number of bytes
+     */
+    public static long parseSize(String size) {
+        String value = size.trim().toLowerCase(Locale.ROOT);
+        long scale = 1;
+        if (value.endsWith("k")) {
+            scale = 1024L;
+        } else if (value.endsWith("m")) {
+            scale = 1024L * 1024;
+        } else if (value.endsWith("g")) {
+            scale = 1024L * 1024 * 1024;
+        }
+        if (scale > 1) {
+            value = value.substring(0, value.length() - 1);
+        }
+        try {
+            return Long.parseLong(value) * scale;
+        } catch (NumberFormatException ex) {
+            throw new ParameterException("Invalid size: " + size);
+        }
+    }
+
+    /** The size and modification time of a local file; anything else never changes. */
+    private static String stamp(URI uri) throws IOException {
+        if (!"file".equals(uri.getScheme())) {
+            return "";
+        }
+        BasicFileAttributes attrs = Files.readAttributes(Paths.get(uri), BasicFileAttributes.class);
+        return attrs.size() + "@" + attrs.lastModifiedTime().toMillis();
+    }
+
+    private static ByteBuffer load(URI uri) throws IOException {
+        if ("file".equals(uri.getScheme())) {
+            Path path = Paths.get(uri);
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                // The file may change size while it's being read; take what's there
+                ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(channel.size(), Integer.MAX_VALUE));
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // keep reading
+                }
+                buffer.flip();
+                return buffer;
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (InputStream stream = openStream(uri)) {
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len = stream.read(buf)) >= 0) {
+                bytes.write(buf, 0, len);
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.size());
+        buffer.put(bytes.toByteArray());
+        buffer.flip();
+        return buffer;
+    }
+
+    private static class Stored {
+        private final ByteBuffer buffer;
+        private final String stamp;
+
+        Stored(ByteBuffer buffer, String stamp) {
+            this.buffer = buffer;
+            this.stamp = stamp;
+        }
+    }
+
+    private static class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long count) {
+            int skip = (int) Math.max(0, Math.min(count, buffer.remaining()));
+            buffer.position(buffer.position() + skip);
+            return skip;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -6,25 +6,11 @@ import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import com.beust.jcommander.Parameters;
-import com.thaiopensource.util.PropertyMapBuilder;
-import com.thaiopensource.validate.SchemaReader;
-import com.thaiopensource.validate.ValidateProperty;
-import com.thaiopensource.validate.ValidationDriver;
-import com.thaiopensource.validate.rng.CompactSchemaReader;
-import net.sf.saxon.Configuration;
-import net.sf.saxon.s9api.Processor;
-import net.sf.saxon.s9api.SaxonApiException;
-import net.sf.saxon.s9api.XdmDestination;
-import net.sf.saxon.s9api.Xslt30Transformer;
-import net.sf.saxon.s9api.XsltCompiler;
-import net.sf.saxon.s9api.XsltExecutable;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.EntityResolver;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
-import org.xml.sax.SAXParseException;
 import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.DefaultHandler;
 import org.xmlresolver.CatalogManager;
 import org.xmlresolver.Resolver;
 import org.xmlresolver.ResolverFeature;
@@ -33,51 +19,105 @@ import org.xmlresolver.cache.ResourceCache;
 import org.xmlresolver.catalog.entry.Entry;
 import org.xmlresolver.catalog.entry.EntryCatalog;
 import org.xmlresolver.exceptions.CatalogInvalidException;
-import org.xmlresolver.sources.ResolverSAXSource;
 import org.xmlresolver.utils.URIUtils;
 
-import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
-import javax.xml.transform.Source;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.URIResolver;
-import javax.xml.transform.sax.SAXSource;
-import javax.xml.transform.stream.StreamSource;
-import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
 import java.net.URI;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.regex.Matcher;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class SampleApp {
+    private static final Pattern GLOB_CHARS = Pattern.compile("[*?\\[{]");
+    private final GrammarCache grammarCache = new GrammarCache(16);
+    private DtdGrammarPool dtdGrammars = null;
+    private final ResolutionMetrics metrics = new ResolutionMetrics();
+    private final HashMap<String, Resolver> resolvers = new HashMap<>();
+    private final IdentityHashMap<Resolver, MemoizingResolver> memoizers = new IdentityHashMap<>();
+
     public static void main(String[] args) {
         SampleApp app = new SampleApp();
-        app.process(args);
+        System.exit(app.run(args));
+    }
+
+    /** Run a command.
+     *
+     * <p>This is the whole application: parse the command line, run the command, and
+     * return the exit status. It's called once by {@link #main(String[])}, or once for
+     * every request when the application is running as a daemon.</p>
+     *
+     * @param args The command line
+     * @return The exit status
+     */
+    int run(String[] args) {
+        return run(args, false);
     }
 
-    private void process(String[] args) {
+    /** Run a command, perhaps on behalf of a daemon client.
+     *
+     * @param args The command line
+     * @param daemon Is this a request to the daemon? If so, commands that would take the
+     * daemon over (serve, -connect, parse -watch, lookup -batch:-) are refused, and so are
+     * the ones whose output would be mixed up with their messages (parse -o:-, lookup -batch).
+     * @return The exit status
+     */
+    int run(String[] args, boolean daemon) {
         CommandMain cmain = new CommandMain();
         CommandParse cparse = new CommandParse();
         CommandLookup clookup = new CommandLookup();
         CommandShow cshow = new CommandShow();
+        CommandServe cserve = new CommandServe();
+        CommandCompileCatalogs ccompile = new CommandCompileCatalogs();
+        CommandPrefetch cprefetch = new CommandPrefetch();
+        CommandOptimize coptimize = new CommandOptimize();
+        CommandCache ccache = new CommandCache();
         JCommander jc = JCommander.newBuilder()
                 .addObject(cmain)
                 .addCommand("parse", cparse)
                 .addCommand("lookup", clookup)
                 .addCommand("show", cshow)
+                .addCommand("serve", cserve)
+                .addCommand("compile-catalogs", ccompile)
+                .addCommand("prefetch", cprefetch)
+                .addCommand("optimize", coptimize)
+                .addCommand("cache", ccache)
                 .build();
 
         jc.setProgramName("SampleApp");
@@ -85,10 +125,37 @@ public class SampleApp {
         try {
             jc.parse(args);
             if (cmain.help || jc.getParsedCommand() == null) {
-                usage(jc, true);
+                return usage(jc, true);
             } else {
                 cmain.command = jc.getParsedCommand();
 
+                if (daemon) {
+                    if ("serve".equals(cmain.command) || cmain.connect != null) {
+                        throw new ParameterException("The daemon can't run the serve command or connect to another daemon");
+                    }
+                    if (cparse.watch) {
+                        throw new ParameterException("The daemon can't watch files; run parse -watch on its own");
+                    }
+                    if ("lookup".equals(cmain.command) && "-".equals(clookup.batch)) {
+                        // The client doesn't send its standard input, and the daemon's would hang every client
+                        throw new ParameterException("The daemon can't read standard input; give -batch a file");
+                    }
+                    // The response carries standard output and standard error together
+                    if ("parse".equals(cmain.command) && "-".equals(cparse.output)) {
+                        throw new ParameterException("The daemon can't keep the result apart from the messages; use -o: with a file, not -o:-");
+                    }
+                    if ("lookup".equals(cmain.command) && clookup.batch != null) {
+                        throw new ParameterException("The daemon can't keep the results of -batch apart from the summary; run lookup -batch without -connect");
+                    }
+                }
+
+                if (cmain.connect != null) {
+                    if ("serve".equals(cmain.command)) {
+                        throw new ParameterException("The -connect option can't be used with the serve command");
+                    }
+                    return ResolverDaemon.send(cmain.connect, withoutConnect(args), System.out);
+                }
+
                 if (!cmain.resolver && cmain.validate) {
                     throw new ParameterException("The resolver must be enabled for the -validate option");
                 }
@@ -99,7 +166,9 @@ public class SampleApp {
 
                 switch (jc.getParsedCommand()) {
                     case "parse":
-                        parse(cmain, cparse);
+                        if (parse(cmain, cparse) > 0) {
+                            return 1;
+                        }
                         break;
                     case "lookup":
                         lookup(cmain, clookup);
@@ -107,35 +176,136 @@ public class SampleApp {
                     case "show":
                         show(cmain, cshow);
                         break;
+                    case "serve":
+                        serve(cserve);
+                        break;
+                    case "compile-catalogs":
+                        compileCatalogs(cmain);
+                        break;
+                    case "prefetch":
+                        if (prefetch(cmain, cprefetch) > 0) {
+                            return 1;
+                        }
+                        break;
+                    case "optimize":
+                        if (optimize(cmain, coptimize) > 0) {
+                            return 1;
+                        }
+                        break;
+                    case "cache":
+                        if (cache(cmain, ccache) > 0) {
+                            return 1;
+                        }
+                        break;
                     default:
                         throw new UnsupportedOperationException("Unexpected command: " + jc.getParsedCommand());
                 }
+                return 0;
             }
         } catch (ParameterException pe) {
             System.err.println(pe.getMessage());
-            usage(pe.getJCommander(), false);
+            return usage(pe.getJCommander(), false);
         }
     }
 
-    private void usage(JCommander jc, boolean help) {
+    private int usage(JCommander jc, boolean help) {
         if (jc != null) {
             DefaultUsageFormatter formatter = new DefaultUsageFormatter(jc);
             StringBuilder sb = new StringBuilder();
             formatter.usage(sb);
             System.err.println(sb);
         }
-        if (help) {
-            System.exit(0);
-        } else {
-            System.exit(1);
+        return help ? 0 : 1;
+    }
+
+    private List<String> withoutConnect(String[] args) {
+        List<String> forward = new ArrayList<>();
+        for (int pos = 0; pos < args.length; pos++) {
+            if ("-connect".equals(args[pos])) {
+                pos++; // skip the value too
+            } else if (!args[pos].startsWith("-connect:")) {
+                forward.add(args[pos]);
+            }
+        }
+        return forward;
+    }
+
+    private void serve(CommandServe command) {
+        ResolverDaemon daemon = new ResolverDaemon(this, command.port);
+        try {
+            daemon.start();
+        } catch (IOException ioe) {
+            throw new ParameterException("Could not start server: " + ioe.getMessage());
+        }
+        System.out.println("Listening on " + daemon.getAddress() + "; press Ctrl-C to stop");
+        System.out.println("Clients must send the token in " + daemon.getTokenFile());
+        daemon.await();
+    }
+
+    /** Parse the documents.
+     *
+     * @return The number of documents that failed or weren't valid
+     */
+    private int parse(CommandMain main, CommandParse command) {
+        List<String> documents = listDocuments(command);
+        if (documents.isEmpty()) {
+            throw new ParameterException("No documents to process");
+        }
+
+        if (command.dtdGrammarPool && !command.dtd) {
+            throw new ParameterException("The -dtd-grammar-pool option requires -dtd");
+        }
+
+        if (command.output != null) {
+            if (command.xsl == null) {
+                throw new ParameterException("The -o option requires -xsl");
+            }
+            if (documents.size() > 1) {
+                if ("-".equals(command.output)) {
+                    throw new ParameterException("Can't write the results of several transformations to standard output");
+                }
+                try {
+                    Files.createDirectories(Paths.get(command.output));
+                } catch (IOException ioe) {
+                    throw new ParameterException("Could not create output directory: " + command.output + ": " + ioe.getMessage());
+                }
+            }
+            checkOutputs(command, documents);
+        }
+
+        if (command.resolutionCache <= 0 && ResourceStore.parseSize(command.resourceCache) > 0) {
+            throw new ParameterException("The -resource-cache option requires the -resolution-cache");
+        }
+
+        if (command.watch) {
+            for (String document : documents) {
+                if (localPath(document) == null) {
+                    throw new ParameterException("The -watch option only works with local files: " + document);
+                }
+            }
+        }
+
+        PrintStream stdout = System.out;
+        if ("-".equals(command.output)) {
+            // Standard output is for the result; the progress messages and the
+            // resolution log go to standard error instead
+            System.setOut(System.err);
+        }
+        command.stdout = stdout;
+        try {
+            parse(main, command, documents);
+        } finally {
+            System.setOut(stdout);
         }
+        return command.failed;
     }
 
-    private void parse(CommandMain main, CommandParse command) {
+    private void parse(CommandMain main, CommandParse command, List<String> documents) {
+        String what = documents.size() == 1 ? documents.get(0) : documents.size() + " documents";
         if (command.dtd) {
-            System.out.println("Performing a (DTD) validating parse of " + command.document);
+            System.out.println("Performing a (DTD) validating parse of " + what);
         } else {
-            System.out.println("Performing a non-validating parse of " + command.document);
+            System.out.println("Performing a non-validating parse of " + what);
         }
 
         if (command.grammar != null) {
@@ -153,26 +323,430 @@ public class SampleApp {
             System.out.println("Continuing with XSLT transformation with " + command.xsl);
         }
 
+        command.nameDocuments = documents.size() > 1;
+        // Remote schemas are read (to see if they've changed) once per run, not once per document
+        grammarCache.forgetStamps();
+        while (parseDocuments(main, command, documents)) {
+            // A catalog changed while watching; start again with a new resolver
+            forgetResolver(main);
+        }
+    }
+
+    /** Parse the documents, and then watch them if that was asked for.
+     *
+     * @return True if a catalog changed while watching
+     */
+    private boolean parseDocuments(CommandMain main, CommandParse command, List<String> documents) {
+        ResolutionLog log = ResolutionLog.create(command.resolverOutput, command.resolverLog, System.out);
+        if (documents.size() > 1) {
+            // Report each document's resolutions together, not mixed in with the other workers'
+            log = ResolutionLog.perThread(log);
+        }
+        metrics.register();
         ChattyResolver chattyResolver;
+        MemoizingResolver memoizer = null;
+        SharedResolver shared = null;
+        CatalogManager manager = null;
         if (!main.resolver) {
             System.out.println("The XML Resolver *is not* being used!");
-            chattyResolver = new ChattyResolver(null);
+            chattyResolver = new ChattyResolver(null, log, null);
         } else {
-            chattyResolver = new ChattyResolver(getResolver(main));
+            Resolver resolver = getResolver(main);
+            ResourceCache cache = resolver.getConfiguration().getFeature(ResolverFeature.CACHE);
+            manager = resolver.getConfiguration().getFeature(ResolverFeature.CATALOG_MANAGER);
+            EntityResolver parent = resolver;
+            if (command.resolutionCache > 0) {
+                memoizer = getMemoizer(resolver, command.resolutionCache, ResourceStore.parseSize(command.resourceCache));
+                // It may be left over from an earlier run in the daemon
+                memoizer.forgetMisses();
+                parent = memoizer;
+            }
+            if (documents.size() > 1) {
+                shared = new SharedResolver(parent, manager);
+                parent = shared;
+            }
+            chattyResolver = new ChattyResolver(parent, log, metrics.recorder(cache.directory()));
+        }
+
+        try {
+            if (documents.size() == 1) {
+                try {
+                    command.failed = parseDocument(command, chattyResolver, manager, documents.get(0)) ? 0 : 1;
+                } catch (ParameterException ex) {
+                    if (!command.watch) {
+                        throw ex;
+                    }
+                    // Watch it anyway; the next edit may fix it
+                    command.failed = 1;
+                    System.out.println("Failed: " + ex.getMessage());
+                }
+            } else {
+                command.failed = parseBatch(command, chattyResolver, manager, documents);
+            }
+            summarize(command, memoizer, shared);
+            if (command.watch) {
+                return watch(main, command, chattyResolver, manager, memoizer, documents);
+            }
+            return false;
+        } finally {
+            log.close();
+        }
+    }
+
+    private void summarize(CommandParse command, MemoizingResolver memoizer, SharedResolver shared) {
+        if (command.metrics != null) {
+            // In a daemon, the metrics are for every parse since it started
+            metrics.write(command.metrics);
+            System.out.println("Resolution metrics written to " + command.metrics);
+        }
+
+        if (memoizer != null) {
+            System.out.println(memoizer.summary());
+            if (memoizer.getStore() != null) {
+                System.out.println(memoizer.getStore().summary());
+            }
+        }
+
+        if (shared != null) {
+            System.out.println(shared.summary());
+        }
+
+        if (command.dtdGrammarPool) {
+            System.out.println(getDtdGrammarPool().summary());
+        }
+
+        if (command.grammar != null || !command.schemas.isEmpty() || command.xsl != null) {
+            System.out.println("Grammar cache: " + grammarCache.getHits() + " hits, "
+                    + grammarCache.getMisses() + " misses, " + grammarCache.size() + " grammars");
+        }
+    }
+
+    /** Revalidate the documents as they change, until a catalog changes.
+     *
+     * <p>An edited document is parsed again with the same resolver and the grammars
+     * that are already compiled. An edited schema means every document is validated
+     * again, after the grammars (and any stored resources) are thrown away; the grammar
+     * cache key only covers the top-level schema documents, so it wouldn't notice an
+     * edited module on its own.</p>
+     *
+     * @return True if a catalog changed; false if the thread was interrupted
+     */
+    private boolean watch(CommandMain main, CommandParse command, ChattyResolver chattyResolver, CatalogManager manager,
+                          MemoizingResolver memoizer, List<String> documents) {
+        Map<Path, String> watched = new LinkedHashMap<>();
+        for (String document : documents) {
+            watched.put(localPath(document).toAbsolutePath().normalize(), document);
+        }
+        List<Path> schemas = new ArrayList<>();
+        List<String> named = new ArrayList<>(command.schemas);
+        named.add(command.grammar);
+        named.add(command.xsl);
+        for (String schema : named) {
+            Path path = schema == null ? null : localPath(schema);
+            if (path != null) {
+                schemas.add(path);
+            }
+        }
+
+        // The catalogs the manager loaded (wherever they were configured), not just the
+        // ones on the command line, and the directories their entries point into (there
+        // are none with -resolver:false)
+        List<Path> catalogs = new ArrayList<>();
+        Set<Path> targets = new LinkedHashSet<>();
+        List<URI> configured = manager == null ? Collections.<URI>emptyList() : manager.catalogs();
+        Map<URI, EntryCatalog> reachable = manager == null ? Collections.<URI, EntryCatalog>emptyMap() : SharedResolver.reachable(manager);
+        for (URI catalog : configured) {
+            Path path = localPath(catalog.toString());
+            if (path != null) {
+                catalogs.add(path);
+            }
+        }
+        for (Map.Entry<URI, EntryCatalog> catalog : reachable.entrySet()) {
+            Path path = localPath(catalog.getKey().toString());
+            if (path != null) {
+                catalogs.add(path);
+            }
+            for (Entry entry : catalog.getValue().entries()) {
+                URI target = CatalogIndex.target(entry);
+                Path directory = target == null ? null : localPath(target.toString());
+                if (directory != null && !target.toString().endsWith("/")) {
+                    directory = directory.getParent();
+                }
+                if (directory != null) {
+                    targets.add(directory);
+                }
+            }
+        }
+
+        try (DocumentWatcher watcher = new DocumentWatcher(new ArrayList<>(watched.keySet()), schemas, catalogs,
+                new ArrayList<>(targets))) {
+            System.out.println();
+            System.out.println("Watching " + watched.size() + (watched.size() == 1 ? " document" : " documents")
+                    + " (" + watcher.getDirectories() + " directories); press Ctrl-C to stop");
+            while (true) {
+                DocumentWatcher.Change change = watcher.next();
+                if (change.getCatalogs()) {
+                    System.out.println();
+                    System.out.println("A catalog changed; reloading the catalogs and rebuilding the grammars");
+                    clearGrammars(null);
+                    return true;
+                }
+
+                List<Path> changed = change.getDocuments();
+                if (change.getSchemas()) {
+                    System.out.println();
+                    System.out.println("A schema changed; rebuilding the grammars");
+                    clearGrammars(memoizer);
+                    changed = new ArrayList<>(watched.keySet());
+                }
+
+                for (Path path : changed) {
+                    revalidate(command, chattyResolver, manager, watched.get(path), path, change.getEdited());
+                }
+                if (command.metrics != null && !changed.isEmpty()) {
+                    metrics.write(command.metrics);
+                }
+            }
+        } catch (IOException ioe) {
+            throw new ParameterException("Could not watch the documents: " + ioe.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void revalidate(CommandParse command, ChattyResolver chattyResolver, CatalogManager manager,
+                            String document, Path path, long edited) {
+        System.out.println();
+        if (!Files.exists(path)) {
+            System.out.println(document + " was deleted; waiting for it to come back");
+            return;
+        }
+
+        long start = System.nanoTime();
+        String result;
+        try {
+            result = parseDocument(command, chattyResolver, manager, document) ? "valid" : "NOT VALID";
+        } catch (ParameterException | CatalogInvalidException ex) {
+            // Half-edited documents are often not well-formed; keep watching
+            result = "failed: " + ex.getMessage();
+        } finally {
+            chattyResolver.flush();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%s: %s in %.1fms; %dms from the edit to the result%n", document, result,
+                elapsed / 1e6, Math.max(0, System.currentTimeMillis() - edited));
+    }
+
+    private void clearGrammars(MemoizingResolver memoizer) {
+        grammarCache.clear();
+        synchronized (grammarCache) {
+            if (dtdGrammars != null) {
+                dtdGrammars.clear();
+            }
+        }
+        if (memoizer != null && memoizer.getStore() != null) {
+            memoizer.getStore().clear();
+        }
+    }
+
+    /** The local file a document, schema, or catalog name refers to, or null if it isn't one. */
+    private static Path localPath(String name) {
+        if (name.startsWith("file:")) {
+            try {
+                return Paths.get(URI.create(name));
+            } catch (IllegalArgumentException ex) {
+                return null;
+            }
+        }
+        if (name.contains(":/")) {
+            // A URI, not a filename
+            return null;
+        }
+        return Paths.get(name);
+    }
+
+    private MemoizingResolver getMemoizer(Resolver resolver, int capacity, long budget) {
+        // Like the resolvers, the remembered answers are kept for as long as the application runs
+        synchronized (memoizers) {
+            MemoizingResolver memoizer = memoizers.get(resolver);
+            long current = memoizer == null || memoizer.getStore() == null ? 0 : memoizer.getStore().getBudget();
+            if (memoizer == null || memoizer.getCapacity() != capacity || current != budget) {
+                memoizer = new MemoizingResolver(resolver, capacity, budget > 0 ? new ResourceStore(budget) : null);
+                memoizers.put(resolver, memoizer);
+            }
+            return memoizer;
         }
+    }
+
+    /** Parse many documents in parallel.
+     *
+     * @return The number of documents that failed or weren't valid
+     */
+    private int parseBatch(CommandParse command, ChattyResolver chattyResolver, CatalogManager manager, List<String> documents) {
+        int threads = command.threads;
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        threads = Math.min(threads, documents.size());
+        System.out.println("Processing " + documents.size() + " documents with " + threads + " threads");
+
+        // All of the workers share the same resolver (and so the same catalog manager
+        // and cache); only the per-document parsers, validators, and transformers are new.
+        BatchSummary summary = new BatchSummary();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (String document : documents) {
+            pool.submit(() -> {
+                long start = System.nanoTime();
+                try {
+                    if (parseDocument(command, chattyResolver, manager, document)) {
+                        summary.succeeded(document, System.nanoTime() - start);
+                    } else {
+                        summary.failed(document, System.nanoTime() - start, "not valid");
+                    }
+                } catch (ParameterException | CatalogInvalidException ex) {
+                    summary.failed(document, System.nanoTime() - start, ex.getMessage());
+                } catch (RuntimeException ex) {
+                    summary.failed(document, System.nanoTime() - start, ex.toString());
+                } finally {
+                    chattyResolver.flush();
+                }
+            });
+        }
+
+        pool.shutdown();
+        try {
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        System.out.println();
+        summary.report(System.out);
+        return summary.getFailures();
+    }
+
+    /** Make sure that no two results are written to the same file, and that no result overwrites a document. */
+    private static void checkOutputs(CommandParse command, List<String> documents) {
+        Map<Path, String> inputs = new HashMap<>();
+        for (String document : documents) {
+            Path path = localPath(document);
+            if (path != null) {
+                inputs.put(path.toAbsolutePath().normalize(), document);
+            }
+        }
+
+        Map<Path, String> outputs = new HashMap<>();
+        for (String document : documents) {
+            Path output = XsltStage.outputPath(command.output, document);
+            if (output == null) {
+                continue;
+            }
+            output = output.toAbsolutePath().normalize();
+            if (inputs.containsKey(output)) {
+                throw new ParameterException("The result for " + document + " would overwrite " + inputs.get(output)
+                        + "; choose another -o");
+            }
+            String previous = outputs.put(output, document);
+            if (previous != null) {
+                throw new ParameterException("The results for " + previous + " and " + document
+                        + " would both be written to " + output + "; choose another -o");
+            }
+        }
+    }
+
+    private boolean parseDocument(CommandParse command, ChattyResolver chattyResolver, CatalogManager manager, String document) {
+        if (command.singlePass) {
+            return parseSinglePass(command, chattyResolver, manager, document);
+        }
+
+        // Each stage is only created (and its library only loaded) if it's used
+        boolean valid = parse(command, chattyResolver, manager, document, null);
+
+        if (command.grammar != null) {
+            ParseHandler handler = new ParseHandler();
+            new RelaxNGStage(grammarCache, chattyResolver, command.grammar).validate(document, handler);
+            valid = report(command, document, "RELAX NG validation", handler) && valid;
+        }
+
+        if (!command.schemas.isEmpty()) {
+            ParseHandler handler = new ParseHandler();
+            new XmlSchemaStage(grammarCache, chattyResolver, command.schemas).validate(document, handler);
+            valid = report(command, document, "XML Schema validation", handler) && valid;
+        }
+
+        if (command.xsl != null) {
+            new XsltStage(grammarCache, chattyResolver, command.xsl, command.output, command.stdout).transform(document);
+            progress(command, document, "Done");
+        }
+
+        return valid;
+    }
+
+    private boolean parseSinglePass(CommandParse command, ChattyResolver chattyResolver, CatalogManager manager, String document) {
+        // Every stage sees the events of one parse; only the transformation has to wait
+        // for the end of the document, because it needs the whole tree.
+        TeeHandler tee = new TeeHandler();
+
+        ParseHandler rngHandler = null;
+        if (command.grammar != null) {
+            rngHandler = new ParseHandler();
+            new RelaxNGStage(grammarCache, chattyResolver, command.grammar).addTo(tee, rngHandler);
+        }
+
+        ParseHandler xsdHandler = null;
+        if (!command.schemas.isEmpty()) {
+            xsdHandler = new ParseHandler();
+            new XmlSchemaStage(grammarCache, chattyResolver, command.schemas).addTo(tee, xsdHandler);
+        }
+
+        XsltStage xslt = null;
+        ContentHandler tree = null;
+        if (command.xsl != null) {
+            xslt = new XsltStage(grammarCache, chattyResolver, command.xsl, command.output, command.stdout);
+            tree = xslt.newTree(document);
+            tee.add(tree, null);
+        }
+
+        boolean valid = parse(command, chattyResolver, manager, document, tee);
+
+        if (rngHandler != null) {
+            valid = report(command, document, "RELAX NG validation", rngHandler) && valid;
+        }
+        if (xsdHandler != null) {
+            valid = report(command, document, "XML Schema validation", xsdHandler) && valid;
+        }
+        if (xslt != null) {
+            xslt.transformTree(tree, document);
+            progress(command, document, "Done");
+        }
+
+        return valid;
+    }
 
+    private boolean parse(CommandParse command, ChattyResolver chattyResolver, CatalogManager manager, String document, TeeHandler tee) {
         try {
-            SAXParserFactory spf = SAXParserFactory.newInstance();
-            spf.setValidating(command.dtd);
-            spf.setNamespaceAware(true);
-            SAXParser parser = spf.newSAXParser();
-            XMLReader reader = parser.getXMLReader();
+            XMLReader reader;
+            if (command.dtdGrammarPool) {
+                reader = getDtdGrammarPool().newReader(manager, URIUtils.resolve(URIUtils.cwd(), document));
+            } else {
+                SAXParserFactory spf = SAXParserFactory.newInstance();
+                spf.setValidating(command.dtd);
+                spf.setNamespaceAware(true);
+                SAXParser parser = spf.newSAXParser();
+                reader = parser.getXMLReader();
+            }
             ParseHandler handler = new ParseHandler();
             reader.setErrorHandler(handler);
             reader.setEntityResolver(chattyResolver);
-            InputSource source = new InputSource(command.document);
+            if (tee != null) {
+                tee.attach(reader);
+            }
+            InputSource source = new InputSource(document);
             reader.parse(source);
-            System.out.println("Parse complete");
+            progress(command, document, "Parse complete");
+            return handler.getValid();
         } catch (ParserConfigurationException pce) {
             throw new ParameterException("Could not create a parser. Classpath problem, perhaps?");
         } catch (SAXException se) {
@@ -182,135 +756,144 @@ public class SampleApp {
         } catch (CatalogInvalidException cie) {
             throw new ParameterException(cie.getMessage());
         }
+    }
 
-        if (command.grammar != null) {
-            try {
-                PropertyMapBuilder builder = new PropertyMapBuilder();
-                builder.put(ValidateProperty.ENTITY_RESOLVER, chattyResolver);
-                builder.put(ValidateProperty.URI_RESOLVER, chattyResolver);
+    private boolean report(CommandParse command, String document, String stage, ParseHandler handler) {
+        progress(command, document, stage + (handler.getValid() ? ": valid" : ": NOT VALID"));
+        return handler.getValid();
+    }
 
-                SchemaReader sr = null;
-                // Hack. Could have an option for this, or could buffer the schema
-                // so that it can be read twice. But for this little sample application,
-                // let's just do the easy thing.
-                if (command.grammar.toLowerCase().endsWith(".rnc")) {
-                    sr = CompactSchemaReader.getInstance();
-                }
+    private void progress(CommandParse command, String document, String message) {
+        // In a batch, the workers' lines are interleaved, so each one says which document it's about
+        System.out.println(command.nameDocuments ? document + ": " + message : message);
+    }
 
-                ValidationDriver driver = new ValidationDriver(builder.toPropertyMap(), builder.toPropertyMap(), sr);
+    private DtdGrammarPool getDtdGrammarPool() {
+        // Created on first use, so that Xerces is only loaded if it's needed
+        synchronized (grammarCache) {
+            if (dtdGrammars == null) {
+                dtdGrammars = new DtdGrammarPool();
+            }
+            return dtdGrammars;
+        }
+    }
 
-                Source schemaSource = ((URIResolver) chattyResolver).resolve(command.grammar, null);
-                SAXSource schema = (ResolverSAXSource) schemaSource;
-                if (schemaSource == null) {
-                    URI suri = URI.create("file://" + System.getProperty("user.dir") + "/").resolve(command.grammar);
-                    schema = new SAXSource(new InputSource(suri.toString()));
+    private List<String> listDocuments(CommandParse command) {
+        List<String> documents = new ArrayList<>();
+        if (command.manifest != null) {
+            try {
+                for (String line : Files.readAllLines(Paths.get(command.manifest), StandardCharsets.UTF_8)) {
+                    line = line.trim();
+                    if (!line.isEmpty() && !line.startsWith("#")) {
+                        documents.add(line);
+                    }
                 }
+            } catch (IOException ioe) {
+                throw new ParameterException("Could not read manifest: " + command.manifest + ": " + ioe.getMessage());
+            }
+        }
 
-                if (!driver.loadSchema(schema.getInputSource())) {
-                    throw new ParameterException("Could not load schema!");
+        for (String document : command.documents) {
+            if (document.contains(":/")) {
+                // A URI, not a filename
+                documents.add(document);
+            } else if (Files.isDirectory(Paths.get(document))) {
+                documents.addAll(findDocuments(Paths.get(document), FileSystems.getDefault().getPathMatcher("glob:**.{xml,xhtml}")));
+            } else if (GLOB_CHARS.matcher(document).find()) {
+                // The paths walked are normalized, so the pattern has to be too
+                String pattern = document.replaceAll("(^|/)(\\./)+", "$1");
+                // Walk from the longest leading part of the pattern that has no wildcards in it
+                Path base = Paths.get(".");
+                String[] segments = pattern.split("/");
+                for (int pos = 0; pos < segments.length - 1 && !GLOB_CHARS.matcher(segments[pos]).find(); pos++) {
+                    base = pos == 0 && segments[pos].isEmpty() ? Paths.get("/") : base.resolve(segments[pos]);
                 }
-
-                InputSource source = new InputSource(command.document);
-                if (driver.validate(source)) {
-                    System.out.println("RELAX NG validation: valid");
-                } else {
-                    System.out.println("RELAX NG validation: NOT VALID");
+                List<String> matches = findDocuments(base.normalize(), FileSystems.getDefault().getPathMatcher("glob:" + pattern));
+                if (matches.isEmpty()) {
+                    throw new ParameterException("No documents match " + document);
                 }
-            } catch (TransformerException te) {
-                throw new ParameterException("Could not lookup URI in catalog: " + te.getMessage());
-            } catch (SAXException se) {
-                throw new ParameterException("Could not load schema: " + se.getMessage());
-            } catch (IOException ioe) {
-                throw new ParameterException("I/O error: " + ioe.getMessage());
+                documents.addAll(matches);
+            } else {
+                documents.add(document);
             }
         }
 
-        if (!command.schemas.isEmpty()) {
-            String schemaDoc = null;
-            Source[] schemaSources = null;
-            try {
-                DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-                dbf.setIgnoringComments(true);
-                dbf.setNamespaceAware(true);
-                dbf.setValidating(false);
-                DocumentBuilder db = dbf.newDocumentBuilder();
-                HashMap<String, Source> nsmap = new HashMap<>();
-                for (String xsd : command.schemas) {
-                    // Bug in Xerces
-                    schemaDoc = xsd.replaceAll(" ", "%20");
-                    Document doc = db.parse(schemaDoc);
-                    Element docelem = doc.getDocumentElement();
-                    String targetNS = docelem.getAttribute("targetNamespace");
-                    nsmap.put(targetNS == null ? "" : targetNS, new StreamSource(doc.getBaseURI()));
-                }
-                schemaSources = nsmap.values().toArray(new Source[0]);
-            } catch (ParserConfigurationException pce) {
-                throw new ParameterException("Could not configure parser: " + pce.getMessage());
-            } catch (SAXException | IOException ex) {
-                throw new ParameterException("Could not load schema: " + schemaDoc + ": " + ex.getMessage());
-            }
-
-            Schema schemas = null;
-            try {
-                SchemaFactory sf;
-                sf = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-                sf.setResourceResolver(chattyResolver);
-                schemas = sf.newSchema(schemaSources);
-            } catch (SAXException ex) {
-                throw new ParameterException("Could not load XML schema document(s): " + ex.getMessage());
+        return documents;
+    }
+
+    private List<String> findDocuments(Path base, PathMatcher matcher) {
+        try (Stream<Path> paths = Files.walk(base)) {
+            return paths.filter(path -> Files.isRegularFile(path) && matcher.matches(path))
+                    .map(Path::toString)
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException ioe) {
+            throw new ParameterException("Could not search " + base + ": " + ioe.getMessage());
+        }
+    }
+
+    private void lookup(CommandMain main, CommandLookup command) {
+        if (!main.resolver) {
+            throw new ParameterException("The resolver must be enabled for the lookup command");
+        }
+
+        if (command.batch != null) {
+            if (command.explain) {
+                throw new ParameterException("The -explain option doesn't apply to -batch lookups");
             }
+            lookupBatch(main, command);
+            return;
+        }
 
-            try {
-                SAXParserFactory spf = SAXParserFactory.newInstance();
-                spf.setNamespaceAware(true);
-                spf.setValidating(false);
-                spf.setSchema(schemas);
+        checkLookup(command);
 
-                SAXParser parser = spf.newSAXParser();
-                XMLReader reader = parser.getXMLReader();
-                reader.setEntityResolver(chattyResolver);
-                ParseHandler handler = new ParseHandler();
-                parser.parse(command.document, handler);
-                if (handler.getValid()) {
-                    System.out.println("XML Schema validation: valid");
-                } else {
-                    System.out.println("XML Schema validation: NOT VALID");
+        Resolver resolver = getResolver(main);
+        CatalogManager manager = resolver.getConfiguration().getFeature(ResolverFeature.CATALOG_MANAGER);
+
+        // Explain first, so that the time it takes to load each catalog is part of the explanation
+        LookupExplainer explainer = null;
+        URI explained = null;
+        if (command.explain) {
+            String style = lookupStyle(command);
+            if (LookupExplainer.explains(style)) {
+                List<URI> catalogs = new ArrayList<>();
+                for (String cat : resolver.getConfiguration().getFeature(ResolverFeature.CATALOG_FILES)) {
+                    catalogs.add(URIUtils.resolve(URIUtils.cwd(), cat));
                 }
-            } catch (ParserConfigurationException pce) {
-                throw new ParameterException("Could not configure parser: " + pce.getMessage());
-            } catch (SAXException | IOException ex) {
-                throw new ParameterException("Could not load schema: " + schemaDoc + ": " + ex.getMessage());
+                explainer = new LookupExplainer(manager,
+                        resolver.getConfiguration().getFeature(ResolverFeature.URI_FOR_SYSTEM));
+                explained = explainer.lookup(catalogs, style, command.systemId, command.publicId, command.uri);
+            } else {
+                System.out.println("Only system, public, entity, and URI lookups can be explained");
             }
         }
 
-        if (command.xsl != null) {
-            Processor processor = new Processor(false);
-            Configuration config = processor.getUnderlyingConfiguration();
-            config.setSourceParserClass("org.xmlresolver.tools.ResolvingXMLReader");
-            config.setStyleParserClass("org.xmlresolver.tools.ResolvingXMLReader");
-            System.setProperty("xmlresolver.properties", System.getProperty("user.dir") + "/src/main/resources/XMLResolver.properties");
-            config.setURIResolver(chattyResolver);
+        // An explanation is about the catalogs, so don't answer from the indexes
+        List<CatalogIndex> indexes = command.explain ? null : openIndexes(main, resolver, System.out);
 
-            try {
-                InputSource docsrc = new InputSource(command.document);
-                XsltCompiler compiler = processor.newXsltCompiler();
-                FileInputStream fis = new FileInputStream(command.xsl);
-                XsltExecutable exec = compiler.compile(new StreamSource(fis, command.xsl));
-                Xslt30Transformer transformer = exec.load30();
-                XdmDestination destination = new XdmDestination();
-                transformer.transform(new SAXSource(docsrc), destination);
-                System.out.println("Done");
-            } catch (SaxonApiException | IOException sae) {
-                throw new ParameterException("Transformation failed: " + sae.getMessage());
+        URI resolved = lookup(manager, indexes, command, true);
+
+        if (resolved == null) {
+            System.out.println("Failed to find matching catalog entry.");
+        } else {
+            if ("file".equals(resolved.getScheme())) {
+                System.out.println("Resolves to: " + resolved.getPath());
+            } else {
+                System.out.println("Resolves to: " + resolved);
             }
         }
-    }
 
-    private void lookup(CommandMain main, CommandLookup command) {
-        if (!main.resolver) {
-            throw new ParameterException("The resolver must be enabled for the lookup command");
+        if (explainer != null) {
+            System.out.println();
+            explainer.report(System.out);
+            if (!Objects.equals(explained, resolved)) {
+                System.out.println("The catalog manager's answer differs from the explanation's: " + explained);
+                System.out.println("(The manager also normalizes identifiers and applies the prefer setting.)");
+            }
         }
+    }
 
+    private void checkLookup(CommandLookup command) {
         if (command.publicId == null && command.systemId == null && command.name == null && command.uri == null) {
             throw new ParameterException("You must specify at least one of -uri:, -system:, -public:, or -name:");
         }
@@ -322,10 +905,9 @@ public class SampleApp {
         if (command.name != null && command.uri != null) {
             throw new ParameterException("The -name: option applies to system identifiers, not uris");
         }
+    }
 
-        Resolver resolver = getResolver(main);
-        CatalogManager manager = resolver.getConfiguration().getFeature(ResolverFeature.CATALOG_MANAGER);
-
+    private String lookupStyle(CommandLookup command) {
         String style = command.lookupType;
         if (style == null) {
             if (command.uri != null) {
@@ -337,67 +919,198 @@ public class SampleApp {
                 style = "entity";
             }
         }
+        return style;
+    }
+
+    private URI lookup(CatalogManager manager, List<CatalogIndex> indexes, CommandLookup command, boolean verbose) {
+        String style = lookupStyle(command);
+        if (verbose) {
+            System.out.println("Performing " + ("uri".equals(style) ? "URI" : style) + " lookup...");
+        }
+
+        URI resolved = lookupIndex(indexes, style, command);
+        if (resolved != null) {
+            return resolved;
+        }
 
-        URI resolved = null;
         switch (style) {
             case "namespace":
                 if (command.name != null) {
                     throw new ParameterException("The -name: option doesn't apply to namespace queries.");
                 }
-                System.out.println("Performing namespace lookup...");
-                resolved = manager.lookupNamespaceURI(command.uri, command.nature, command.purpose);
-                break;
+                return manager.lookupNamespaceURI(command.uri, command.nature, command.purpose);
             case "uri":
-                System.out.println("Performing URI lookup...");
-                resolved = manager.lookupURI(command.uri);
-                break;
+                return manager.lookupURI(command.uri);
             case "entity":
-                System.out.println("Performing entity lookup...");
-                resolved = manager.lookupEntity(command.name, command.systemId, command.publicId);
-                break;
+                return manager.lookupEntity(command.name, command.systemId, command.publicId);
             case "public":
                 if (command.name != null) {
                     throw new ParameterException("The -name: option doesn't apply to public queries.");
                 }
-                System.out.println("Performing public lookup...");
-                resolved = manager.lookupPublic(command.systemId, command.publicId);
-                break;
+                return manager.lookupPublic(command.systemId, command.publicId);
             case "system":
                 if (command.publicId != null) {
                     throw new ParameterException("The -public: option doesn't apply to system queries.");
                 }
-                System.out.println("Performing system lookup...");
-                resolved = manager.lookupSystem(command.systemId);
-                break;
+                return manager.lookupSystem(command.systemId);
             case "doctype":
-                System.out.println("Performing doctype lookup...");
-                resolved = manager.lookupDoctype(command.name, command.systemId, command.publicId);
-                break;
+                return manager.lookupDoctype(command.name, command.systemId, command.publicId);
             case "document":
                 if (command.name != null || command.systemId != null || command.publicId != null || command.uri != null
                     || command.nature != null || command.purpose != null) {
                     throw new ParameterException("Document queries don't take any options");
                 }
-                System.out.println("Performing document lookup...");
-                resolved = manager.lookupDocument();
-                break;
+                return manager.lookupDocument();
             case "notation":
-                System.out.println("Performing notation lookup...");
-                resolved = manager.lookupNotation(command.name, command.systemId, command.publicId);
-                break;
+                return manager.lookupNotation(command.name, command.systemId, command.publicId);
             default:
                 throw new ParameterException("Unknown query type: " + style);
         }
+    }
+
+    private URI lookupIndex(List<CatalogIndex> indexes, String style, CommandLookup command) {
+        if (indexes == null) {
+            return null;
+        }
+        String key = "uri".equals(style) ? command.uri : command.systemId;
+        if (key == null) {
+            // Nothing the index can look up (-type:system -public:X, say)
+            return null;
+        }
 
-        if (resolved == null) {
-            System.out.println("Failed to find matching catalog entry.");
-        } else {
-            if ("file".equals(resolved.getScheme())) {
-                System.out.println("Resolves to: " + resolved.getPath());
-            } else {
-                System.out.println("Resolves to: " + resolved);
+        // Only a match in the index is trusted. Misses, and anything the index can't answer
+        // on its own, are left to the catalog manager, which will load the catalogs.
+        for (CatalogIndex index : indexes) {
+            URI resolved;
+            switch (style) {
+                case "uri":
+                    resolved = index.lookupURI(command.uri);
+                    break;
+                case "system":
+                    resolved = index.lookupSystem(command.systemId);
+                    break;
+                case "entity":
+                    if (command.systemId == null || command.publicId != null || command.name != null) {
+                        return null;
+                    }
+                    resolved = index.lookupSystem(command.systemId);
+                    break;
+                default:
+                    return null;
+            }
+            if (resolved != null) {
+                return resolved;
+            }
+            if (index.hasNextCatalogs()) {
+                // A delegated or next catalog would be searched before the next catalog in the list
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private void lookupBatch(CommandMain main, CommandLookup command) {
+        // Standard output is reserved for the results
+        Resolver resolver = getResolver(main, System.err);
+        CatalogManager manager = resolver.getConfiguration().getFeature(ResolverFeature.CATALOG_MANAGER);
+        List<CatalogIndex> indexes = openIndexes(main, resolver, System.err);
+
+        int threads = command.threads;
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+
+        // Queries are resolved in parallel, but the results are written in input order.
+        // Only a bounded window of queries is ever in flight, so the input can be arbitrarily long.
+        int window = threads * 64;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+        AtomicLong resolvedCount = new AtomicLong();
+        AtomicLong errorCount = new AtomicLong();
+        long queries = 0;
+        long start = System.nanoTime();
+
+        InputStream input = System.in;
+        try {
+            if (!"-".equals(command.batch)) {
+                input = new FileInputStream(command.batch);
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+            BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                queries++;
+                final String query = line;
+                pending.add(pool.submit(() -> lookupJson(manager, indexes, query, resolvedCount, errorCount)));
+                if (pending.size() >= window) {
+                    writer.write(pending.remove().get());
+                    writer.newLine();
+                }
+            }
+            while (!pending.isEmpty()) {
+                writer.write(pending.remove().get());
+                writer.newLine();
+            }
+            writer.flush();
+        } catch (IOException ioe) {
+            throw new ParameterException("I/O error: " + ioe.getMessage());
+        } catch (ExecutionException ex) {
+            throw new ParameterException("Lookup failed: " + ex.getCause().getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ParameterException("Interrupted");
+        } finally {
+            pool.shutdownNow();
+            if (input != System.in) {
+                try {
+                    input.close();
+                } catch (IOException ioe) {
+                    // nevermind
+                }
+            }
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("Performed %d lookups with %d threads in %.2fs (%.0f lookups/sec): %d resolved, %d unresolved, %d errors%n",
+                queries, threads, seconds, queries / seconds, resolvedCount.get(),
+                queries - resolvedCount.get() - errorCount.get(), errorCount.get());
+    }
+
+    private String lookupJson(CatalogManager manager, List<CatalogIndex> indexes, String line, AtomicLong resolvedCount, AtomicLong errorCount) {
+        StringBuilder sb = new StringBuilder("{");
+        try {
+            Map<String, String> json = Json.parseObject(line);
+            CommandLookup query = new CommandLookup();
+            if (json.get("type") != null) {
+                query.lookupType = new LookupTypeConverter().convert(json.get("type"));
             }
+            query.name = json.get("name");
+            query.systemId = json.get("system");
+            query.publicId = json.get("public");
+            query.uri = json.get("uri");
+            query.nature = json.get("nature");
+            query.purpose = json.get("purpose");
+
+            for (Map.Entry<String, String> field : json.entrySet()) {
+                sb.append(Json.quote(field.getKey())).append(':').append(Json.quote(field.getValue())).append(',');
+            }
+
+            checkLookup(query);
+            URI resolved = lookup(manager, indexes, query, false);
+            if (resolved != null) {
+                resolvedCount.incrementAndGet();
+            }
+            sb.append("\"resolved\":").append(Json.quote(resolved == null ? null : resolved.toString()));
+        } catch (RuntimeException ex) {
+            // Whatever goes wrong with one query is that line's error; it mustn't stop the batch
+            errorCount.incrementAndGet();
+            String message = ex.getMessage() == null ? ex.getClass().getSimpleName() : ex.getMessage();
+            sb.append("\"error\":").append(Json.quote(message));
         }
+        return sb.append('}').toString();
     }
 
     private void show(CommandMain main, CommandShow command) {
@@ -406,84 +1119,306 @@ public class SampleApp {
         }
 
         Resolver resolver = getResolver(main);
-        String regex = ".*";
+        CatalogListing.Filter filter = new CatalogListing.Filter(command.entryType, command.regex,
+                command.systemId, command.publicId, command.uri);
         if (command.regex != null) {
-            regex = command.regex;
-            System.out.println("Showing all catalog entries matching " + regex);
+            System.out.println("Showing all catalog entries matching " + command.regex);
         }
 
         XMLResolverConfiguration config = resolver.getConfiguration();
         List<String> resCatalogs = config.getFeature(ResolverFeature.CATALOG_FILES);
-
-        Pattern pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
         CatalogManager manager = config.getFeature(ResolverFeature.CATALOG_MANAGER);
+        int limit = command.limit > 0 ? command.limit : Integer.MAX_VALUE;
+
+        // Load (and search) the catalogs in parallel, but print them in order
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(resCatalogs.size(),
+                Runtime.getRuntime().availableProcessors())));
+        List<Future<CatalogListing>> listings = new ArrayList<>();
         for (String cat : resCatalogs) {
-            System.out.println(cat);
-            int count = 0;
-            int match = 0;
-            EntryCatalog ecat =  manager.loadCatalog(URIUtils.resolve(URIUtils.cwd(), cat));
-            for (Entry entry : ecat.entries()) {
-                count += 1;
-                String str = entry.toString();
-                Matcher matcher = pattern.matcher(str);
-                if (matcher.find()) {
-                    System.out.println("  " + str);
-                    match += 1;
+            listings.add(pool.submit(() -> {
+                URI caturi = URIUtils.resolve(URIUtils.cwd(), cat);
+                CatalogIndex index = main.catalogIndex == null ? null : CatalogIndex.open(Paths.get(main.catalogIndex), caturi);
+                if (index == null) {
+                    return CatalogListing.of(manager.loadCatalog(caturi));
+                }
+                return CatalogListing.of(index);
+            }));
+        }
+        pool.shutdown();
+
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        try {
+            int shown = 0;
+            for (int pos = 0; pos < resCatalogs.size(); pos++) {
+                if (shown >= limit) {
+                    writer.write("Stopped after " + shown + " entries");
+                    writer.newLine();
+                    break;
+                }
+                CatalogListing listing = listings.get(pos).get();
+                List<String> matches = listing.select(filter, limit - shown);
+                shown += matches.size();
+
+                writer.write(resCatalogs.get(pos));
+                writer.newLine();
+                for (String match : matches) {
+                    writer.write("  ");
+                    writer.write(match);
+                    writer.newLine();
+                }
+                if (filter.isSelective()) {
+                    writer.write(matches.size() + " of " + listing.size() + " matches");
+                    writer.newLine();
                 }
             }
-            if (!".*".equals(regex)) {
-                System.out.println(match + " of " + count + " matches");
+            writer.flush();
+        } catch (IOException ioe) {
+            throw new ParameterException("I/O error: " + ioe.getMessage());
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
             }
+            throw new ParameterException("Could not load catalog: " + ex.getCause().getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ParameterException("Interrupted");
+        } finally {
+            pool.shutdownNow();
         }
     }
 
-    private Resolver getResolver(CommandMain main) {
-        // By default the resolver will look for an xmlresolver.properties file on the classpath.
-        // I want to make sure I get the sample properties file so I gave it a different name
-        // and I'm loading it explicitly.
-        URL propurl = ClassLoader.getSystemClassLoader().getResource("xmlresolver-sampleapp.properties");
-        if (propurl == null) {
-            throw new ParameterException("Configuration error, cannot open xmlresolver-sampleapp.properties file.");
+    private void compileCatalogs(CommandMain main) {
+        if (!main.resolver) {
+            throw new ParameterException("The resolver must be enabled for the compile-catalogs command");
+        }
+        if (main.catalogIndex == null) {
+            throw new ParameterException("The compile-catalogs command requires -catalog-index:");
         }
-        List<URL> propertyFiles = Collections.singletonList(propurl);
-        XMLResolverConfiguration config = new XMLResolverConfiguration(propertyFiles, main.catalogs);
-        config.setFeature(ResolverFeature.CACHE_UNDER_HOME, false);
-        config.setFeature(ResolverFeature.CLASSPATH_CATALOGS, main.classpathCatalogs);
 
-        if (main.cache) {
-            if (main.cacheDirectory != null) {
-                config.setFeature(ResolverFeature.CACHE_DIRECTORY, main.cacheDirectory);
+        Resolver resolver = getResolver(main);
+        XMLResolverConfiguration config = resolver.getConfiguration();
+        List<String> resCatalogs = config.getFeature(ResolverFeature.CATALOG_FILES);
+        CatalogManager manager = config.getFeature(ResolverFeature.CATALOG_MANAGER);
+        Path directory = Paths.get(main.catalogIndex);
+        for (String cat : resCatalogs) {
+            URI caturi = URIUtils.resolve(URIUtils.cwd(), cat);
+            try {
+                int count = CatalogIndex.compile(caturi, manager.loadCatalog(caturi), directory);
+                System.out.println("Compiled " + count + " entries from " + cat + " to " + CatalogIndex.indexFile(directory, caturi));
+            } catch (IOException ioe) {
+                throw new ParameterException("Could not compile " + cat + ": " + ioe.getMessage());
             }
+        }
+    }
+
+    private int optimize(CommandMain main, CommandOptimize command) {
+        if (!main.resolver) {
+            throw new ParameterException("The resolver must be enabled for the optimize command");
+        }
+        if (command.catalogs.size() != 1) {
+            throw new ParameterException("The optimize command requires exactly one catalog");
+        }
+        if (command.output == null) {
+            throw new ParameterException("The optimize command requires -o:");
+        }
+
+        URI before = URIUtils.resolve(URIUtils.cwd(), command.catalogs.get(0));
+        Path output = Paths.get(command.output);
+        URI after = output.toAbsolutePath().toUri();
+        if (before.equals(after)) {
+            throw new ParameterException("The optimized catalog can't replace the original: " + command.output);
+        }
+
+        System.out.println("Optimizing " + command.catalogs.get(0));
+        CatalogManager beforeManager = catalogManager(main, before);
+        long start = System.nanoTime();
+        EntryCatalog original = beforeManager.loadCatalog(before);
+        long beforeLoad = System.nanoTime() - start;
+        CatalogOptimizer optimizer = new CatalogOptimizer(original, command.minEntries);
+
+        for (String rewrite : optimizer.rewrites()) {
+            System.out.println(rewrite);
+        }
+        try {
+            optimizer.write(output);
+        } catch (IOException ioe) {
+            throw new ParameterException("Could not write " + command.output + ": " + ioe.getMessage());
+        }
+        System.out.println("Wrote " + optimizer.optimizedSize() + " entries (was " + optimizer.originalSize() + ") to " + command.output);
+
+        CatalogManager afterManager = catalogManager(main, after);
+        start = System.nanoTime();
+        afterManager.loadCatalog(after);
+        long afterLoad = System.nanoTime() - start;
+
+        CatalogOptimizer.Comparison comparison = optimizer.compare(beforeManager, afterManager, command.iterations);
+        System.out.printf("Loading: %.2fms before, %.2fms after%n", beforeLoad / 1e6, afterLoad / 1e6);
+        System.out.printf("Looking up every key %d times: %.2fms before, %.2fms after%n", command.iterations,
+                comparison.getBeforeNanos() / 1e6, comparison.getAfterNanos() / 1e6);
+
+        for (String widened : comparison.getWidened()) {
+            System.out.println("Warning: " + widened);
+        }
+
+        List<String> mismatches = comparison.getMismatches();
+        if (mismatches.isEmpty()) {
+            System.out.println("Every key resolves the same way in both catalogs");
         } else {
-            config.setFeature(ResolverFeature.CACHE_DIRECTORY, null);
+            System.out.println(mismatches.size() + " keys resolve differently; the optimized catalog is not equivalent:");
+            for (String mismatch : mismatches) {
+                System.out.println("\t" + mismatch);
+            }
         }
+        return mismatches.size();
+    }
 
-        if (main.validate) {
-            config.setFeature(ResolverFeature.CATALOG_LOADER_CLASS, "org.xmlresolver.loaders.ValidatingXmlLoader");
+    private int cache(CommandMain main, CommandCache command) {
+        if (command.actions.size() != 1) {
+            throw new ParameterException("The cache command requires one of: stats, evict, verify, or compact");
         }
 
+        String directory = main.cacheDirectory;
+        if (directory == null) {
+            // The default cache directory comes from the properties file
+            main.cache = true;
+            directory = getConfiguration(main, System.out).getFeature(ResolverFeature.CACHE).directory();
+            if (directory == null) {
+                throw new ParameterException("There's no cache directory; use -cache-directory:");
+            }
+        }
+
+        int threads = command.threads > 0 ? command.threads : Runtime.getRuntime().availableProcessors();
+        CacheMaintenance cache = new CacheMaintenance(Paths.get(directory), threads, System.out);
+        switch (command.actions.get(0)) {
+            case "stats":
+                cache.stats();
+                return 0;
+            case "evict":
+                if (command.maxBytes == null && command.maxAge == null) {
+                    throw new ParameterException("The evict action requires -max-bytes:, -max-age:, or both");
+                }
+                long maxBytes = command.maxBytes == null ? 0 : ResourceStore.parseSize(command.maxBytes);
+                long maxAge = command.maxAge == null ? 0 : parseAge(command.maxAge);
+                cache.evict(maxBytes, maxAge, command.dryRun);
+                return 0;
+            case "verify":
+                return cache.verify(command.delete);
+            case "compact":
+                cache.compact(command.dryRun);
+                return 0;
+            default:
+                throw new ParameterException("Unknown cache action: " + command.actions.get(0) + " (must be stats, evict, verify, or compact)");
+        }
+    }
+
+    private static long parseAge(String age) {
+        String value = age.trim().toLowerCase(Locale.ROOT);
+        long scale = 1000L;
+        if (value.endsWith("m")) {
+            scale = 60 * 1000L;
+        } else if (value.endsWith("h")) {
+            scale = 60 * 60 * 1000L;
+        } else if (value.endsWith("d")) {
+            scale = 24 * 60 * 60 * 1000L;
+        }
+        if (value.endsWith("s") || scale > 1000L) {
+            value = value.substring(0, value.length() - 1);
+        }
+        try {
+            return Long.parseLong(value) * scale;
+        } catch (NumberFormatException ex) {
+            throw new ParameterException("Invalid age: " + age);
+        }
+    }
+
+    private CatalogManager catalogManager(CommandMain main, URI catalog) {
+        // Just the one catalog, so that the comparison isn't about the others
+        CommandMain only = new CommandMain();
+        only.catalogs = Collections.singletonList(catalog.toString());
+        only.classpathCatalogs = false;
+        only.validate = main.validate;
+        return getConfiguration(only, System.out).getFeature(ResolverFeature.CATALOG_MANAGER);
+    }
+
+    private int prefetch(CommandMain main, CommandPrefetch command) {
+        if (!main.resolver) {
+            throw new ParameterException("The resolver must be enabled for the prefetch command");
+        }
+        if (!main.cache) {
+            throw new ParameterException("The prefetch command requires -cache or -cache-directory:");
+        }
+        if (command.resources.isEmpty()) {
+            throw new ParameterException("The prefetch command requires at least one schema or document");
+        }
+        if (command.perHost <= 0 || command.delay < 0) {
+            throw new ParameterException("The -per-host limit must be positive and the -delay can't be negative");
+        }
+
+        int threads = command.threads > 0 ? command.threads : Runtime.getRuntime().availableProcessors();
+        Prefetcher prefetcher = new Prefetcher(getResolver(main), threads, command.perHost, command.delay, System.out);
+        return prefetcher.prefetch(command.resources);
+    }
+
+    private List<CatalogIndex> openIndexes(CommandMain main, Resolver resolver, PrintStream messages) {
+        if (main.catalogIndex == null) {
+            return null;
+        }
+
+        // The catalogs are searched in order, so the index is only useful if every catalog has one
+        List<CatalogIndex> indexes = new ArrayList<>();
+        List<String> resCatalogs = resolver.getConfiguration().getFeature(ResolverFeature.CATALOG_FILES);
+        for (String cat : resCatalogs) {
+            CatalogIndex index = CatalogIndex.open(Paths.get(main.catalogIndex), URIUtils.resolve(URIUtils.cwd(), cat));
+            if (index == null) {
+                messages.println("No current compiled index for " + cat + "; loading the catalogs");
+                return null;
+            }
+            indexes.add(index);
+        }
+        return indexes;
+    }
+
+    private Resolver getResolver(CommandMain main) {
+        return getResolver(main, System.out);
+    }
+
+    private Resolver getResolver(CommandMain main, PrintStream messages) {
+        // The configuration is the same for every command with the same options, so
+        // reuse the resolver (and its catalog manager). In a single run, this doesn't
+        // matter, but it means the daemon only loads the catalogs once.
+        String key = resolverKey(main);
+        Resolver resolver;
+        synchronized (resolvers) {
+            resolver = main.rescanClasspath ? null : resolvers.get(key);
+            if (resolver == null) {
+                resolver = new Resolver(getConfiguration(main, messages));
+                resolvers.put(key, resolver);
+            }
+        }
+
+        XMLResolverConfiguration config = resolver.getConfiguration();
         List<String> resCatalogs = config.getFeature(ResolverFeature.CATALOG_FILES);
         if (resCatalogs.isEmpty()) {
-            System.out.println("Using the XML Resolver with no catalogs");
+            messages.println("Using the XML Resolver with no catalogs");
         } else {
-            System.out.println("Using the XML Resolver with the following catalogs:");
+            messages.println("Using the XML Resolver with the following catalogs:");
             for (String cat : resCatalogs) {
-                System.out.println("\t" + cat);
+                messages.println("\t" + cat);
             }
         }
 
         if ("parse".equals(main.command)) {
             // Catalog PIs are only relevant when parsing
             if (config.getFeature(ResolverFeature.ALLOW_CATALOG_PI)) {
-                System.out.println("OASIS XML Catalogs processing instruction catalogs will be used");
+                messages.println("OASIS XML Catalogs processing instruction catalogs will be used");
             } else {
-                System.out.println("OASIS XML Catalogs processing instruction catlaogs will be ignored");
+                messages.println("OASIS XML Catalogs processing instruction catlaogs will be ignored");
             }
         }
 
         ResourceCache cache = config.getFeature(ResolverFeature.CACHE);
         if (cache.directory() != null) {
-            System.out.println("Cache location: " + cache.directory());
+            messages.println("Cache location: " + cache.directory());
         } else {
             if (main.cache) {
                 if (main.cacheDirectory == null) {
@@ -495,38 +1430,69 @@ public class SampleApp {
 
             if ("parse".equals(main.command)) {
                 // Not parsing is only relevant to the parse command
-                System.out.println("The resolver will not cache resources");
+                messages.println("The resolver will not cache resources");
             }
         }
 
-        System.out.println();
+        messages.println();
 
-        return new Resolver(config);
+        return resolver;
     }
 
-    private static class ParseHandler extends DefaultHandler {
-        private boolean valid = true;
+    private static String resolverKey(CommandMain main) {
+        return main.catalogs + "|" + main.validate + "|" + main.classpathCatalogs
+                + "|" + main.classpathManifest + "|" + main.cache + "|" + main.cacheDirectory;
+    }
 
-        public boolean getValid() {
-            return valid;
+    /** Forget the resolver for these options (and its memoizer), so that the catalogs are loaded again. */
+    private void forgetResolver(CommandMain main) {
+        Resolver resolver;
+        synchronized (resolvers) {
+            resolver = resolvers.remove(resolverKey(main));
+        }
+        if (resolver != null) {
+            synchronized (memoizers) {
+                memoizers.remove(resolver);
+            }
         }
+    }
 
-        @Override
-        public void fatalError(SAXParseException ex) throws SAXException {
-            valid = false;
-            System.err.println(ex.getMessage());
+    private XMLResolverConfiguration getConfiguration(CommandMain main, PrintStream messages) {
+        // By default the resolver will look for an xmlresolver.properties file on the classpath.
+        // I want to make sure I get the sample properties file so I gave it a different name
+        // and I'm loading it explicitly.
+        URL propurl = ClassLoader.getSystemClassLoader().getResource("xmlresolver-sampleapp.properties");
+        if (propurl == null) {
+            throw new ParameterException("Configuration error, cannot open xmlresolver-sampleapp.properties file.");
         }
+        List<URL> propertyFiles = Collections.singletonList(propurl);
 
-        @Override
-        public void error(SAXParseException ex) throws SAXException {
-            valid = false;
-            System.err.println(ex.getMessage());
+        // The resolver would search the classpath for catalogs every time; instead, use the
+        // ones we found last time, if the classpath hasn't changed, and add them explicitly.
+        List<String> catalogs = main.catalogs;
+        if (main.classpathCatalogs) {
+            catalogs = new ArrayList<>(main.catalogs);
+            catalogs.addAll(new ClasspathCatalogs(main.classpathManifest == null
+                    ? ClasspathCatalogs.defaultManifest() : Paths.get(main.classpathManifest), messages).find(main.rescanClasspath));
         }
 
-        @Override
-        public void warning(SAXParseException ex) throws SAXException {
-            System.err.println(ex.getMessage());
+        XMLResolverConfiguration config = new XMLResolverConfiguration(propertyFiles, catalogs);
+        config.setFeature(ResolverFeature.CACHE_UNDER_HOME, false);
+        config.setFeature(ResolverFeature.CLASSPATH_CATALOGS, false);
+
+        if (main.cache) {
+            if (main.cacheDirectory != null) {
+                config.setFeature(ResolverFeature.CACHE_DIRECTORY, main.cacheDirectory);
+            }
+        } else {
+            config.setFeature(ResolverFeature.CACHE_DIRECTORY, null);
         }
+
+        if (main.validate) {
+            config.setFeature(ResolverFeature.CATALOG_LOADER_CLASS, "org.xmlresolver.loaders.ValidatingXmlLoader");
+        }
+
+        return config;
     }
 
     @Parameters(separators = ":", commandDescription = "Global options")
@@ -548,21 +1514,42 @@ public class SampleApp {
         @Parameter(names = {"-classpath-catalogs", "-cp"}, description = "Search the classpath for catalogs", arity = 1)
         private boolean classpathCatalogs = true;
 
+        @Parameter(names = "-classpath-manifest", description = "Remember the catalogs found on the classpath in this file (by default, one in ~/.sampleapp)")
+        private String classpathManifest = null;
+
+        @Parameter(names = "-rescan-classpath", description = "Search the classpath for catalogs even if the manifest is current")
+        private boolean rescanClasspath = false;
+
         @Parameter(names = "-cache", description = "Enable caching")
         private boolean cache = false;
 
         @Parameter(names = {"-cache-directory", "-cache-dir"}, description = "Directory to use for caching (implies -cache)")
         private String cacheDirectory;
+
+        @Parameter(names = "-catalog-index", description = "Use (or, with compile-catalogs, write) compiled catalog indexes in this directory")
+        private String catalogIndex;
+
+        @Parameter(names = "-connect", description = "Send the command to a SampleApp daemon on this port")
+        private String connect;
     }
 
     @Parameters(separators = ":", commandDescription = "Parse, validate, and/or transform a document")
     private static class CommandParse {
-        @Parameter(description = "The document to process", required = true)
-        private String document;
+        @Parameter(description = "The document(s), directories, or glob patterns to process")
+        private List<String> documents = new ArrayList<>();
+
+        @Parameter(names = "-manifest", description = "Process the documents listed (one per line) in a file")
+        private String manifest;
+
+        @Parameter(names = "-threads", description = "Number of documents to process in parallel (defaults to the number of processors)")
+        private int threads = 0;
 
         @Parameter(names = "-dtd", description = "Perform a (DTD) validating parse")
         private boolean dtd = false;
 
+        @Parameter(names = "-dtd-grammar-pool", description = "Reuse compiled DTDs across documents (requires -dtd)")
+        private boolean dtdGrammarPool = false;
+
         @Parameter(names = "-xsd", description = "Perform XML Schema validation with schema(s)")
         private List<String> schemas = new ArrayList<>();
 
@@ -571,6 +1558,37 @@ public class SampleApp {
 
         @Parameter(names = "-xsl", description = "Transform the document wht the XSL stylesheet")
         private String xsl;
+
+        @Parameter(names = "-single-pass", description = "Parse each document once, feeding the validators and the transformation from the same parse")
+        private boolean singlePass = false;
+
+        @Parameter(names = "-o", description = "Write the transformation result to this file (- for standard output, a directory for several documents)")
+        private String output;
+
+        @Parameter(names = "-resolver-output", description = "How to report resolution: quiet, human, or jsonl")
+        private String resolverOutput = "human";
+
+        @Parameter(names = "-resolver-log", description = "Write jsonl resolution events to this file (instead of standard output)")
+        private String resolverLog;
+
+        @Parameter(names = "-resolution-cache", description = "Remember up to this many resolver answers, including misses")
+        private int resolutionCache = 0;
+
+        @Parameter(names = "-resource-cache", description = "Keep up to this many bytes (e.g. 64m) of resolved resources in memory (requires -resolution-cache)")
+        private String resourceCache = "0";
+
+        @Parameter(names = "-metrics", description = "Write resolution metrics to this file (JSON if it ends in .json, otherwise Prometheus text)")
+        private String metrics;
+
+        @Parameter(names = "-watch", description = "Keep running, and validate each document again whenever it (or a schema or catalog) changes")
+        private boolean watch = false;
+
+        // Set by parse: do the progress messages need to say which document they're about?
+        private boolean nameDocuments = false;
+        // Where the result goes for -o:-, since System.out is standard error then
+        private PrintStream stdout = System.out;
+        // Set by parse: how many documents failed or weren't valid
+        private int failed = 0;
     }
 
     @Parameters(separators = ":", commandDescription = "Lookup entries in the catalog(s)")
@@ -595,12 +1613,97 @@ public class SampleApp {
 
         @Parameter(names = "-purpose", description = "Specify the namespace purpose")
         private String purpose;
+
+        @Parameter(names = "-explain", description = "Show which catalogs were searched, what matched, and how long each took")
+        private boolean explain = false;
+
+        @Parameter(names = "-batch", description = "Perform the lookups in a JSON Lines file (or - for standard input)")
+        private String batch;
+
+        @Parameter(names = "-threads", description = "Number of batch lookups to perform in parallel (defaults to the number of processors)")
+        private int threads = 0;
     }
 
     @Parameters(separators = ":", commandDescription = "Show the content of the catalog(s)")
     private class CommandShow {
         @Parameter(names = {"-regex", "-r"}, description = "A regular expression to filter the entries shown")
         private String regex;
+
+        @Parameter(names = "-type", description = "Show only entries of this type (system, rewriteSystem, delegatePublic, …)")
+        private String entryType;
+
+        @Parameter(names = "-system", description = "Show the entries that apply to this system identifier")
+        private String systemId;
+
+        @Parameter(names = "-public", description = "Show the entries that apply to this public identifier")
+        private String publicId;
+
+        @Parameter(names = "-uri", description = "Show the entries that apply to this URI")
+        private String uri;
+
+        @Parameter(names = "-limit", description = "Show at most this many entries")
+        private int limit = 0;
+    }
+
+    @Parameters(separators = ":", commandDescription = "Run as a daemon, answering commands sent with -connect")
+    private static class CommandServe {
+        @Parameter(names = "-port", description = "The (loopback) port to listen on")
+        private int port = ResolverDaemon.DEFAULT_PORT;
+    }
+
+    @Parameters(separators = ":", commandDescription = "Compile the catalog(s) into the -catalog-index directory")
+    private static class CommandCompileCatalogs {
+    }
+
+    @Parameters(separators = ":", commandDescription = "Show, trim, check, or tidy up the resolver's cache")
+    private static class CommandCache {
+        @Parameter(description = "What to do: stats, evict, verify, or compact")
+        private List<String> actions = new ArrayList<>();
+
+        @Parameter(names = "-max-bytes", description = "Evict the least recently used resources until the cache is no bigger than this (e.g., 500m)")
+        private String maxBytes;
+
+        @Parameter(names = "-max-age", description = "Evict resources that haven't been used for this long (e.g., 30d, 12h)")
+        private String maxAge;
+
+        @Parameter(names = "-delete", description = "Remove the corrupt resources that verify finds")
+        private boolean delete = false;
+
+        @Parameter(names = "-dry-run", description = "Say what evict or compact would remove, without removing it")
+        private boolean dryRun = false;
+
+        @Parameter(names = "-threads", description = "Number of threads to scan the cache with (defaults to the number of processors)")
+        private int threads = 0;
+    }
+
+    @Parameters(separators = ":", commandDescription = "Replace one-by-one catalog entries with rewrites")
+    private static class CommandOptimize {
+        @Parameter(description = "The catalog to optimize")
+        private List<String> catalogs = new ArrayList<>();
+
+        @Parameter(names = "-o", description = "Write the optimized catalog to this file")
+        private String output;
+
+        @Parameter(names = "-min-entries", description = "Only use a rewrite if it replaces at least this many entries")
+        private int minEntries = 2;
+
+        @Parameter(names = "-iterations", description = "Look up every key this many times to compare the catalogs' speed")
+        private int iterations = 100;
+    }
+
+    @Parameters(separators = ":", commandDescription = "Fetch everything a schema or document depends on into the cache")
+    private static class CommandPrefetch {
+        @Parameter(description = "The DTD(s), schema(s), grammar(s), or document(s) to start from")
+        private List<String> resources = new ArrayList<>();
+
+        @Parameter(names = "-threads", description = "Number of resources to fetch in parallel (defaults to the number of processors)")
+        private int threads = 0;
+
+        @Parameter(names = "-per-host", description = "Fetch at most this many resources from any one host at a time")
+        private int perHost = 2;
+
+        @Parameter(names = "-delay", description = "Wait at least this many milliseconds between requests to the same host")
+        private long delay = 250;
     }
 
     private static class LookupTypeConverter implements IStringConverter<String> {
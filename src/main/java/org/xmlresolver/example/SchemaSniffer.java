@@ -0,0 +1,117 @@
+package org.xmlresolver.example;
+
+import org.xml.sax.InputSource;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+
+/** Look inside schema documents without parsing them.
+ *
+ * <p>Schema documents are read into memory exactly once. The bytes are used to work out
+ * what kind of schema it is (or what its target namespace is) and then they're handed to
+ * the real schema reader. Nothing is fetched or parsed twice, which matters when schemas
+ * come over the network or out of <code>jar:</code> files.</p>
+ */
+
+class SchemaSniffer {
+    // Far more than enough to get past a byte order mark and some leading whitespace
+    private static final int SNIFF_LENGTH = 4096;
+
+    /** Read a schema document.
+     *
+     * <p>If the input source already has a byte stream (if it came from the resolver, for
+     * example), that stream is read. Otherwise, the system identifier is opened.</p>
+     *
+     * @param source The schema document
+     * @return The content of the schema document
+     * @throws IOException if the schema cannot be read
+     */
+    public static byte[] read(InputSource source) throws IOException {
+        InputStream stream = source.getByteStream();
+        if (stream == null) {
+            stream = new URL(source.getSystemId()).openStream();
+        }
+
+        try (InputStream in = stream) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len = in.read(buf)) >= 0) {
+                out.write(buf, 0, len);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /** Is this RELAX NG grammar in the compact syntax?
+     *
+     * <p>A grammar in the XML syntax must begin with "&lt;" (after an optional byte order
+     * mark and whitespace). A grammar in the compact syntax can't.</p>
+     *
+     * @param content The grammar
+     * @return true if the grammar is in the compact syntax
+     */
+    public static boolean isCompactSyntax(byte[] content) {
+        int limit = Math.min(content.length, SNIFF_LENGTH);
+        int pos = 0;
+        int step = 1;
+
+        if (limit >= 3 && (content[0] & 0xff) == 0xef && (content[1] & 0xff) == 0xbb && (content[2] & 0xff) == 0xbf) {
+            pos = 3;
+        } else if (limit >= 2 && (content[0] & 0xff) == 0xfe && (content[1] & 0xff) == 0xff) {
+            // UTF-16BE, the interesting byte is the second one in each pair
+            pos = 3;
+            step = 2;
+        } else if (limit >= 2 && (content[0] & 0xff) == 0xff && (content[1] & 0xff) == 0xfe) {
+            // UTF-16LE, the interesting byte is the first one in each pair
+            pos = 2;
+            step = 2;
+        }
+
+        while (pos < limit) {
+            byte ch = content[pos];
+            if (ch != ' ' && ch != '\t' && ch != '\r' && ch != '\n') {
+                return ch != '<';
+            }
+            pos += step;
+        }
+
+        return true;
+    }
+
+    /** Find the target namespace of an XML Schema document.
+     *
+     * <p>Only the start tag of the root element is parsed.</p>
+     *
+     * @param content The schema document
+     * @param systemId The system identifier of the schema document, for error messages
+     * @return The target namespace, or "" if there isn't one
+     * @throws XMLStreamException if the document isn't well-formed
+     */
+    public static String targetNamespace(byte[] content, String systemId) throws XMLStreamException {
+        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        // We only want the root element; never go looking for a DTD
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+        XMLStreamReader reader = inputFactory.createXMLStreamReader(systemId, new ByteArrayInputStream(content));
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    String targetNS = reader.getAttributeValue(null, "targetNamespace");
+                    return targetNS == null ? "" : targetNS;
+                }
+            }
+            return "";
+        } finally {
+            reader.close();
+        }
+    }
+}
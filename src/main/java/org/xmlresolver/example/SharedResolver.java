@@ -0,0 +1,160 @@
+package org.xmlresolver.example;
+
+import org.w3c.dom.ls.LSInput;
+import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.EntityResolver2;
+import org.xmlresolver.CatalogManager;
+import org.xmlresolver.catalog.entry.Entry;
+import org.xmlresolver.catalog.entry.EntryCatalog;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.URIResolver;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/** A resolver that many parser threads can share.
+ *
+ * <p>The state in the resolver that threads could trip over is in the catalog manager:
+ * a catalog is only read the first time a lookup needs it, and any lookup, for any
+ * identifier, can be the one that does. So before the threads start, this wrapper loads
+ * every catalog the lookups could reach: the configured catalogs and, recursively, the
+ * catalogs their <code>nextCatalog</code> and delegate entries point to. After that,
+ * the threads only ever read the loaded catalogs, and no request waits for another.
+ * Nothing is locked while the resolver works, so a slow fetch for one identifier never
+ * holds up the others. (The resolver's cache looks after its own files.)</p>
+ *
+ * <p>The counters are {@link LongAdder}s, so counting doesn't make the threads contend
+ * either. What each thread reports is kept together by the {@link ResolutionLog}; see
+ * {@link ResolutionLog#perThread(ResolutionLog)}.</p>
+ */
+
+class SharedResolver implements EntityResolver2, URIResolver, LSResourceResolver {
+    private final EntityResolver parent;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder resolved = new LongAdder();
+    private final int preloaded;
+
+    /** Share a resolver.
+     *
+     * @param parent The resolver; it must also be an EntityResolver2, URIResolver, and LSResourceResolver
+     * @param manager The resolver's catalog manager, whose catalogs are loaded now, or null
+     */
+    public SharedResolver(EntityResolver parent, CatalogManager manager) {
+        this.parent = parent;
+        preloaded = manager == null ? 0 : preload(manager);
+    }
+
+    /** Load every catalog a lookup could reach.
+     *
+     * @param manager The catalog manager
+     * @return The number of catalogs loaded
+     */
+    public static int preload(CatalogManager manager) {
+        return reachable(manager).size();
+    }
+
+    /** Load every catalog a lookup could reach.
+     *
+     * <p>Catalogs that can't be loaded are left out; the lookup that needs one will
+     * report the problem.</p>
+     *
+     * @param manager The catalog manager
+     * @return The catalogs, in the order they were found
+     */
+    public static Map<URI, EntryCatalog> reachable(CatalogManager manager) {
+        Map<URI, EntryCatalog> loaded = new LinkedHashMap<>();
+        Set<URI> seen = new HashSet<>();
+        Deque<URI> pending = new ArrayDeque<>(manager.catalogs());
+        while (!pending.isEmpty()) {
+            URI catalog = pending.removeFirst();
+            if (catalog == null || !seen.add(catalog)) {
+                continue;
+            }
+            EntryCatalog entries;
+            try {
+                entries = manager.loadCatalog(catalog);
+            } catch (RuntimeException ex) {
+                continue;
+            }
+            loaded.put(catalog, entries);
+            for (Entry entry : entries.entries()) {
+                switch (entry.getType()) {
+                    case NEXT_CATALOG:
+                    case DELEGATE_PUBLIC:
+                    case DELEGATE_SYSTEM:
+                    case DELEGATE_URI:
+                        pending.add(CatalogIndex.target(entry));
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        return loaded;
+    }
+
+    /** How busy the resolver was.
+     *
+     * @return A one line summary
+     */
+    public String summary() {
+        return "Shared resolver: " + calls.sum() + " calls, " + resolved.sum() + " resolved, "
+                + preloaded + " catalogs loaded before the threads started";
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getResolved() {
+        return resolved.sum();
+    }
+
+    public int getPreloaded() {
+        return preloaded;
+    }
+
+    private <T> T count(T source) {
+        calls.increment();
+        if (source != null) {
+            resolved.increment();
+        }
+        return source;
+    }
+
+    @Override
+    public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
+        return count(parent.resolveEntity(publicId, systemId));
+    }
+
+    @Override
+    public InputSource getExternalSubset(String name, String baseURI) throws SAXException, IOException {
+        return count(((EntityResolver2) parent).getExternalSubset(name, baseURI));
+    }
+
+    @Override
+    public InputSource resolveEntity(String name, String publicId, String baseURI, String systemId) throws SAXException, IOException {
+        return count(((EntityResolver2) parent).resolveEntity(name, publicId, baseURI, systemId));
+    }
+
+    @Override
+    public Source resolve(String href, String base) throws TransformerException {
+        return count(((URIResolver) parent).resolve(href, base));
+    }
+
+    @Override
+    public LSInput resolveResource(String type, String namespaceURI, String publicId, String systemId, String baseURI) {
+        return count(((LSResourceResolver) parent).resolveResource(type, namespaceURI, publicId, systemId, baseURI));
+    }
+}
@@ -0,0 +1,199 @@
+package org.xmlresolver.example;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.DTDHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.ext.LexicalHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Send the events from one parse to several handlers.
+ *
+ * <p>Validating a document with a RELAX NG grammar and an XML Schema, and then
+ * transforming it, would ordinarily parse it three times. With a tee, it's parsed
+ * once and each event goes to every stage in turn. Handlers that also want DTD or
+ * lexical events (comments, for example) get those too.</p>
+ */
+
+class TeeHandler implements ContentHandler, DTDHandler, LexicalHandler {
+    private static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+
+    private final List<ContentHandler> handlers = new ArrayList<>();
+    private final List<DTDHandler> dtdHandlers = new ArrayList<>();
+    private final List<LexicalHandler> lexicalHandlers = new ArrayList<>();
+
+    /** Add a stage.
+     *
+     * @param handler The stage's content handler; if it's also a lexical handler, it gets those events too
+     * @param dtdHandler The stage's DTD handler, or null
+     */
+    public void add(ContentHandler handler, DTDHandler dtdHandler) {
+        handlers.add(handler);
+        if (dtdHandler != null) {
+            dtdHandlers.add(dtdHandler);
+        }
+        if (handler instanceof LexicalHandler) {
+            lexicalHandlers.add((LexicalHandler) handler);
+        }
+    }
+
+    /** Make this the reader's content, DTD, and (if the reader supports it) lexical handler.
+     *
+     * @param reader The reader
+     */
+    public void attach(XMLReader reader) {
+        reader.setContentHandler(this);
+        reader.setDTDHandler(this);
+        if (!lexicalHandlers.isEmpty()) {
+            try {
+                reader.setProperty(LEXICAL_HANDLER, this);
+            } catch (SAXException ex) {
+                // Then the stages don't see comments; they can still do their jobs
+            }
+        }
+    }
+
+    @Override
+    public void setDocumentLocator(Locator locator) {
+        for (ContentHandler handler : handlers) {
+            handler.setDocumentLocator(locator);
+        }
+    }
+
+    @Override
+    public void startDocument() throws SAXException {
+        for (ContentHandler handler : handlers) {
+            handler.startDocument();
+        }
+    }
+
+    @Override
+    public void endDocument() throws SAXException {
+        for (ContentHandler handler : handlers) {
+            handler.endDocument();
+        }
+    }
+
+    @Override
+    public void startPrefixMapping(String prefix, String uri) throws SAXException {
+        for (ContentHandler handler : handlers) {
+            handler.startPrefixMapping(prefix, uri);
+        }
+    }
+
+    @Override
+    public void endPrefixMapping(String prefix) throws SAXException {
+        for (ContentHandler handler : handlers) {
+            handler.endPrefixMapping(prefix);
+        }
+    }
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+        for (ContentHandler handler : handlers) {
+            handler.startElement(uri, localName, qName, atts);
+        }
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        for (ContentHandler handler : handlers) {
+            handler.endElement(uri, localName, qName);
+        }
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) throws SAXException {
+        for (ContentHandler handler : handlers) {
+            handler.characters(ch, start, length);
+        }
+    }
+
+    @Override
+    public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+        for (ContentHandler handler : handlers) {
+            handler.ignorableWhitespace(ch, start, length);
+        }
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) throws SAXException {
+        for (ContentHandler handler : handlers) {
+            handler.processingInstruction(target, data);
+        }
+    }
+
+    @Override
+    public void skippedEntity(String name) throws SAXException {
+        for (ContentHandler handler : handlers) {
+            handler.skippedEntity(name);
+        }
+    }
+
+    @Override
+    public void notationDecl(String name, String publicId, String systemId) throws SAXException {
+        for (DTDHandler handler : dtdHandlers) {
+            handler.notationDecl(name, publicId, systemId);
+        }
+    }
+
+    @Override
+    public void unparsedEntityDecl(String name, String publicId, String systemId, String notationName) throws SAXException {
+        for (DTDHandler handler : dtdHandlers) {
+            handler.unparsedEntityDecl(name, publicId, systemId, notationName);
+        }
+    }
+
+    @Override
+    public void startDTD(String name, String publicId, String systemId) throws SAXException {
+        for (LexicalHandler handler : lexicalHandlers) {
+            handler.startDTD(name, publicId, systemId);
+        }
+    }
+
+    @Override
+    public void endDTD() throws SAXException {
+        for (LexicalHandler handler : lexicalHandlers) {
+            handler.endDTD();
+        }
+    }
+
+    @Override
+    public void startEntity(String name) throws SAXException {
+        for (LexicalHandler handler : lexicalHandlers) {
+            handler.startEntity(name);
+        }
+    }
+
+    @Override
+    public void endEntity(String name) throws SAXException {
+        for (LexicalHandler handler : lexicalHandlers) {
+            handler.endEntity(name);
+        }
+    }
+
+    @Override
+    public void startCDATA() throws SAXException {
+        for (LexicalHandler handler : lexicalHandlers) {
+            handler.startCDATA();
+        }
+    }
+
+    @Override
+    public void endCDATA() throws SAXException {
+        for (LexicalHandler handler : lexicalHandlers) {
+            handler.endCDATA();
+        }
+    }
+
+    @Override
+    public void comment(char[] ch, int start, int length) throws SAXException {
+        for (LexicalHandler handler : lexicalHandlers) {
+            handler.comment(ch, start, length);
+        }
+    }
+}
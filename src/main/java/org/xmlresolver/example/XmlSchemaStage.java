@@ -0,0 +1,141 @@
+package org.xmlresolver.example;
+
+import com.beust.jcommander.ParameterException;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xmlresolver.utils.URIUtils;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.ValidatorHandler;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/** XML Schema validation.
+ *
+ * <p>The schema factory (and the schema validator behind it) is only loaded
+ * if there are schemas to validate with.</p>
+ */
+
+class XmlSchemaStage {
+    private final Schema schema;
+    private final ChattyResolver chattyResolver;
+
+    /** Load the schemas, from the cache if they're there.
+     *
+     * @param grammarCache The cache of compiled grammars
+     * @param chattyResolver The resolver
+     * @param schemas The schema documents, as given on the command line
+     */
+    public XmlSchemaStage(GrammarCache grammarCache, ChattyResolver chattyResolver, List<String> schemas) {
+        this.chattyResolver = chattyResolver;
+
+        String schemaDoc = null;
+        List<String> schemaURIs = new ArrayList<>();
+        List<GrammarCache.Stamp> stamps = new ArrayList<>();
+        List<String> values = new ArrayList<>();
+        try {
+            for (String xsd : schemas) {
+                // Bug in Xerces
+                schemaDoc = xsd.replaceAll(" ", "%20");
+                String schemaURI = URIUtils.resolve(URIUtils.cwd(), schemaDoc).toString();
+                schemaURIs.add(schemaURI);
+                GrammarCache.Stamp stamp = grammarCache.stamp(schemaURI);
+                stamps.add(stamp);
+                values.add(stamp.getValue());
+            }
+        } catch (IOException ex) {
+            throw new ParameterException("Could not load schema: " + schemaDoc + ": " + ex.getMessage());
+        }
+
+        // The schema documents are only read if they have to be compiled (and weren't read for their stamps)
+        String key = GrammarCache.key("xsd", schemaURIs, values);
+        schema = grammarCache.get(key, () -> compile(schemaURIs, read(schemaURIs, stamps)));
+    }
+
+    /** Validate a document with its own parse.
+     *
+     * @param document The document
+     * @param handler Where to report errors
+     */
+    public void validate(String document, ErrorHandler handler) {
+        try {
+            SAXParserFactory spf = SAXParserFactory.newInstance();
+            spf.setNamespaceAware(true);
+            spf.setValidating(false);
+            spf.setSchema(schema);
+
+            SAXParser parser = spf.newSAXParser();
+            XMLReader reader = parser.getXMLReader();
+            reader.setEntityResolver(chattyResolver);
+            reader.setErrorHandler(handler);
+            reader.parse(new InputSource(document));
+        } catch (ParserConfigurationException pce) {
+            throw new ParameterException("Could not configure parser: " + pce.getMessage());
+        } catch (SAXException | IOException ex) {
+            throw new ParameterException("Could not load schema: " + ex.getMessage());
+        }
+    }
+
+    /** Validate a document with the events of someone else's parse.
+     *
+     * @param tee The tee that the parse will feed
+     * @param handler Where to report errors
+     */
+    public void addTo(TeeHandler tee, ErrorHandler handler) {
+        ValidatorHandler validator = schema.newValidatorHandler();
+        validator.setErrorHandler(handler);
+        validator.setResourceResolver(chattyResolver);
+        tee.add(validator, null);
+    }
+
+    private static List<byte[]> read(List<String> schemaURIs, List<GrammarCache.Stamp> stamps) {
+        List<byte[]> contents = new ArrayList<>();
+        for (int pos = 0; pos < schemaURIs.size(); pos++) {
+            String schemaURI = schemaURIs.get(pos);
+            try {
+                contents.add(stamps.get(pos).read(schemaURI));
+            } catch (IOException ex) {
+                throw new ParameterException("Could not load schema: " + schemaURI + ": " + ex.getMessage());
+            }
+        }
+        return contents;
+    }
+
+    private Schema compile(List<String> schemaURIs, List<byte[]> contents) {
+        String schemaDoc = null;
+        Source[] schemaSources = null;
+        try {
+            HashMap<String, Source> nsmap = new HashMap<>();
+            for (int pos = 0; pos < schemaURIs.size(); pos++) {
+                schemaDoc = schemaURIs.get(pos);
+                String targetNS = SchemaSniffer.targetNamespace(contents.get(pos), schemaDoc);
+                nsmap.put(targetNS, new StreamSource(new ByteArrayInputStream(contents.get(pos)), schemaDoc));
+            }
+            schemaSources = nsmap.values().toArray(new Source[0]);
+        } catch (XMLStreamException ex) {
+            throw new ParameterException("Could not load schema: " + schemaDoc + ": " + ex.getMessage());
+        }
+
+        try {
+            SchemaFactory sf;
+            sf = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+            sf.setResourceResolver(chattyResolver);
+            return sf.newSchema(schemaSources);
+        } catch (SAXException ex) {
+            throw new ParameterException("Could not load XML schema document(s): " + ex.getMessage());
+        }
+    }
+}
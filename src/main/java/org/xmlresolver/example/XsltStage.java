@@ -0,0 +1,216 @@
+package org.xmlresolver.example;
+
+import com.beust.jcommander.ParameterException;
+import net.sf.saxon.Configuration;
+import net.sf.saxon.s9api.BuildingContentHandler;
+import net.sf.saxon.s9api.DocumentBuilder;
+import net.sf.saxon.s9api.Processor;
+import net.sf.saxon.s9api.SaxonApiException;
+import net.sf.saxon.s9api.XdmDestination;
+import net.sf.saxon.s9api.Xslt30Transformer;
+import net.sf.saxon.s9api.XsltCompiler;
+import net.sf.saxon.s9api.XsltExecutable;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.InputSource;
+import org.xmlresolver.utils.URIUtils;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+/** XSLT transformation with Saxon.
+ *
+ * <p>This is the only class that uses Saxon, so Saxon isn't loaded unless there's
+ * a stylesheet. The compiled stylesheet is thread safe and shared; each document
+ * gets its own transformer.</p>
+ *
+ * <p>The stylesheet is only read when it has to be compiled. To find it in the cache,
+ * it's identified by its URI and its {@link GrammarCache#stamp(String) stamp}, which is
+ * only worked out once per run.</p>
+ */
+
+class XsltStage {
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    private final XsltExecutable exec;
+    private final ChattyResolver chattyResolver;
+    private final String output;
+    private final PrintStream stdout;
+
+    static {
+        // For the resolving parser that Saxon uses
+        System.setProperty("xmlresolver.properties", System.getProperty("user.dir") + "/src/main/resources/XMLResolver.properties");
+    }
+
+    /** Load the stylesheet, from the cache if it's there.
+     *
+     * @param grammarCache The cache of compiled grammars (and stylesheets)
+     * @param chattyResolver The resolver
+     * @param xsl The stylesheet, as given on the command line
+     * @param output Where to write the result (see {@link #transform(String)}), or null to discard it
+     * @param stdout Standard output, for an output of <code>-</code>
+     */
+    public XsltStage(GrammarCache grammarCache, ChattyResolver chattyResolver, String xsl, String output, PrintStream stdout) {
+        this.chattyResolver = chattyResolver;
+        this.output = output;
+        this.stdout = stdout;
+
+        String xslURI = URIUtils.resolve(URIUtils.cwd(), xsl).toString();
+        GrammarCache.Stamp stamp;
+        try {
+            stamp = grammarCache.stamp(xslURI);
+        } catch (IOException ex) {
+            throw new ParameterException("Could not load stylesheet: " + xsl + ": " + ex.getMessage());
+        }
+        String key = GrammarCache.key("xsl", Collections.singletonList(xslURI), Collections.singletonList(stamp.getValue()));
+        exec = grammarCache.get(key, () -> compile(xsl, xslURI, stamp));
+    }
+
+    /** Transform a document, parsing it.
+     *
+     * <p>If there's an output, the result is serialized there as it's produced: to standard
+     * output for <code>-</code>, to a file named for the document if the output is a directory
+     * (see {@link #outputPath(String, String)}), or else to the output file. Otherwise, it's
+     * built in memory and discarded.</p>
+     *
+     * @param document The document
+     */
+    public void transform(String document) {
+        transform(document, new SAXSource(new InputSource(document)));
+    }
+
+    /** A content handler that builds a document to transform.
+     *
+     * <p>The tree gets the document's URI as its base URI, so that the stylesheet sees
+     * the same <code>document-uri()</code> and <code>base-uri()</code>, and resolves
+     * relative URIs the same way, as it would if it had parsed the document itself.</p>
+     *
+     * @param document The document that will be parsed into the tree
+     * @return The handler, to pass to {@link #transformTree(ContentHandler, String)} when it's done
+     */
+    public ContentHandler newTree(String document) {
+        try {
+            DocumentBuilder builder = exec.getProcessor().newDocumentBuilder();
+            builder.setBaseURI(URIUtils.resolve(URIUtils.cwd(), document));
+            return builder.newBuildingContentHandler();
+        } catch (SaxonApiException sae) {
+            throw new ParameterException("Could not build document: " + sae.getMessage());
+        }
+    }
+
+    /** Transform a document that's already been built.
+     *
+     * @param tree The handler from {@link #newTree(String)}, after the parse
+     * @param document The document (for naming the output)
+     */
+    public void transformTree(ContentHandler tree, String document) {
+        try {
+            transform(document, ((BuildingContentHandler) tree).getDocumentNode().asSource());
+        } catch (SaxonApiException sae) {
+            throw new ParameterException("Transformation failed: " + sae.getMessage());
+        }
+    }
+
+    private void transform(String document, Source source) {
+        try {
+            Xslt30Transformer transformer = exec.load30();
+            transformer.setURIResolver(chattyResolver);
+            if (output == null) {
+                XdmDestination destination = new XdmDestination();
+                transformer.transform(source, destination);
+            } else {
+                // Serialize as the result is produced, instead of building it in memory
+                try (OutputStream out = openOutput(document)) {
+                    transformer.transform(source, transformer.newSerializer(out));
+                }
+            }
+        } catch (SaxonApiException sae) {
+            throw new ParameterException("Transformation failed: " + sae.getMessage());
+        } catch (IOException ioe) {
+            throw new ParameterException("Could not write result: " + ioe.getMessage());
+        }
+    }
+
+    /** Where the result for a document is written.
+     *
+     * <p>If the output is a directory, the result has the document's path, relative to
+     * the directory: <code>xml/a/doc.xml</code> is written to
+     * <code><em>output</em>/xml/a/doc.xml</code>. A document given by an absolute path,
+     * a path outside the current directory, or a URI gets just its filename.</p>
+     *
+     * @param output The output, as given on the command line
+     * @param document The document
+     * @return The file, or null for standard output
+     */
+    public static Path outputPath(String output, String document) {
+        if ("-".equals(output)) {
+            return null;
+        }
+        Path path = Paths.get(output);
+        if (!Files.isDirectory(path)) {
+            return path;
+        }
+
+        String name = document;
+        if (name.startsWith("file:") || name.contains(":/")) {
+            String uriPath = URI.create(name).getPath();
+            name = uriPath == null ? "" : uriPath.substring(uriPath.lastIndexOf('/') + 1);
+        }
+        Path relative = Paths.get(name).normalize();
+        if (relative.isAbsolute() || relative.startsWith("..")) {
+            relative = relative.getFileName();
+        }
+        return relative == null || relative.toString().isEmpty() ? path.resolve("result") : path.resolve(relative);
+    }
+
+    private OutputStream openOutput(String document) throws IOException {
+        Path path = outputPath(output, document);
+        if (path == null) {
+            // Don't close standard output when the transformation is finished
+            return new BufferedOutputStream(new FilterOutputStream(stdout) {
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            }, OUTPUT_BUFFER_SIZE);
+        }
+
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        return new BufferedOutputStream(Files.newOutputStream(path), OUTPUT_BUFFER_SIZE);
+    }
+
+    private XsltExecutable compile(String xsl, String xslURI, GrammarCache.Stamp stamp) {
+        byte[] content;
+        try {
+            content = stamp.read(xslURI);
+        } catch (IOException ex) {
+            throw new ParameterException("Could not load stylesheet: " + xsl + ": " + ex.getMessage());
+        }
+
+        Processor processor = new Processor(false);
+        Configuration config = processor.getUnderlyingConfiguration();
+        config.setSourceParserClass("org.xmlresolver.tools.ResolvingXMLReader");
+        config.setStyleParserClass("org.xmlresolver.tools.ResolvingXMLReader");
+        config.setURIResolver(chattyResolver);
+
+        try {
+            XsltCompiler compiler = processor.newXsltCompiler();
+            return compiler.compile(new StreamSource(new ByteArrayInputStream(content), xslURI));
+        } catch (SaxonApiException sae) {
+            throw new ParameterException("Could not compile stylesheet: " + sae.getMessage());
+        }
+    }
+}